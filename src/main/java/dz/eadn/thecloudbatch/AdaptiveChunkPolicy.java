@@ -0,0 +1,146 @@
+package dz.eadn.thecloudbatch;
+
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.context.RepeatContextSupport;
+import org.springframework.batch.repeat.policy.DefaultResultCompletionPolicy;
+import org.springframework.core.env.Environment;
+
+/**
+ * Chunk completion policy whose size is configured per step and, in adaptive
+ * mode, adjusted between chunks from how long each chunk took to read, write
+ * and commit and from how often chunks fail:
+ *
+ * - a failed chunk halves the size,
+ * - a chunk slower than the target shrinks it in proportion,
+ * - a chunk well under the target grows it by a quarter, unless chunks have
+ *   been failing recently,
+ *
+ * always within [min, max]. The size in use is written to the step execution
+ * context under {@code chunk.size} after every chunk.
+ *
+ * Settings are read from batch.chunk.&lt;stepName&gt;.* and fall back to batch.chunk.*:
+ * size, adaptive, min, max, target-ms.
+ *
+ * One instance belongs to one step; partitions of that step share what it learns.
+ * The size is volatile and only changed under the instance lock, and each chunk
+ * reads it once when it starts, so a chunk ends at the size it began with even
+ * if another partition adjusts it meanwhile.
+ */
+public class AdaptiveChunkPolicy extends DefaultResultCompletionPolicy implements ChunkListener {
+
+    public static final String CHUNK_SIZE_KEY = "chunk.size";
+
+    private static final String START_ATTRIBUTE = AdaptiveChunkPolicy.class.getName() + ".start";
+    private static final double ERROR_RATE_WEIGHT = 0.2;
+    private static final double MAX_ERROR_RATE_FOR_GROWTH = 0.05;
+
+    private final boolean adaptive;
+    private final int minSize;
+    private final int maxSize;
+    private final long targetMillis;
+
+    // Read by every partition thread when it starts a chunk
+    private volatile int size;
+    private double errorRate = 0;
+
+    public AdaptiveChunkPolicy(int size, boolean adaptive, int minSize, int maxSize, long targetMillis) {
+        this.size = Math.max(minSize, Math.min(maxSize, size));
+        this.adaptive = adaptive;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetMillis = targetMillis;
+    }
+
+    public static AdaptiveChunkPolicy forStep(Environment environment, String stepName) {
+        String prefix = "batch.chunk." + stepName + ".";
+        int size = setting(environment, prefix, "size", Integer.class, 500);
+        boolean adaptive = setting(environment, prefix, "adaptive", Boolean.class, false);
+        int min = setting(environment, prefix, "min", Integer.class, 10);
+        int max = setting(environment, prefix, "max", Integer.class, 10000);
+        long target = setting(environment, prefix, "target-ms", Long.class, 1000L);
+        return new AdaptiveChunkPolicy(size, adaptive, min, max, target);
+    }
+
+    private static <T> T setting(Environment environment, String prefix, String name, Class<T> type, T defaultValue) {
+        T value = environment.getProperty(prefix + name, type);
+        return value != null ? value : environment.getProperty("batch.chunk." + name, type, defaultValue);
+    }
+
+    public int getChunkSize() {
+        return size;
+    }
+
+    @Override
+    public RepeatContext start(RepeatContext parent) {
+        return new SizedContext(parent, size);
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context, RepeatStatus result) {
+        return super.isComplete(context, result) || isComplete(context);
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context) {
+        SizedContext chunk = (SizedContext) context;
+        return chunk.getStartedCount() >= chunk.size;
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        context.setAttribute(START_ATTRIBUTE, System.nanoTime());
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        if (adaptive) {
+            adapt(elapsedMillis(context), false);
+        }
+        report(context);
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        if (adaptive) {
+            adapt(elapsedMillis(context), true);
+        }
+        report(context);
+    }
+
+    private synchronized void adapt(long elapsedMillis, boolean failed) {
+        errorRate = (1 - ERROR_RATE_WEIGHT) * errorRate + ERROR_RATE_WEIGHT * (failed ? 1 : 0);
+
+        int size = this.size;
+        int next = size;
+        if (failed) {
+            next = size / 2;
+        } else if (elapsedMillis > targetMillis * 5 / 4) {
+            next = (int) (size * targetMillis / elapsedMillis);
+        } else if (elapsedMillis < targetMillis * 3 / 4 && errorRate < MAX_ERROR_RATE_FOR_GROWTH) {
+            next = size + Math.max(1, size / 4);
+        }
+        this.size = Math.max(minSize, Math.min(maxSize, next));
+    }
+
+    private long elapsedMillis(ChunkContext context) {
+        Object start = context.getAttribute(START_ATTRIBUTE);
+        return start == null ? targetMillis : (System.nanoTime() - (Long) start) / 1_000_000;
+    }
+
+    private void report(ChunkContext context) {
+        context.getStepContext().getStepExecution().getExecutionContext().putInt(CHUNK_SIZE_KEY, size);
+    }
+
+    // The size a chunk started with
+    private static final class SizedContext extends RepeatContextSupport {
+        final int size;
+
+        SizedContext(RepeatContext parent, int size) {
+            super(parent);
+            this.size = size;
+        }
+    }
+}
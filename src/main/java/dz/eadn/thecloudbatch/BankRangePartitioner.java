@@ -0,0 +1,48 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Splits the pending cheques into contiguous ranges of beneficiary banks, one
+ * per partition. Every bank falls in exactly one range, so the LOT files of a
+ * bank/operation group are always written by a single partition.
+ *
+ * Each partition context carries {@code minBank} and {@code maxBank}.
+ */
+public class BankRangePartitioner implements Partitioner {
+
+    private static final String PENDING_BANKS_SQL =
+            "SELECT DISTINCT beneficiary_bank FROM cheques WHERE status = 'to be integrated' ORDER BY beneficiary_bank";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BankRangePartitioner(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        List<Integer> banks = jdbcTemplate.queryForList(PENDING_BANKS_SQL, Integer.class);
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        if (banks.isEmpty()) {
+            return partitions;
+        }
+
+        int banksPerPartition = (banks.size() + gridSize - 1) / gridSize;
+        for (int start = 0, partition = 0; start < banks.size(); start += banksPerPartition, partition++) {
+            int end = Math.min(start + banksPerPartition, banks.size()) - 1;
+            ExecutionContext context = new ExecutionContext();
+            context.putInt("minBank", banks.get(start));
+            context.putInt("maxBank", banks.get(end));
+            partitions.put("banks" + partition, context);
+        }
+        return partitions;
+    }
+}
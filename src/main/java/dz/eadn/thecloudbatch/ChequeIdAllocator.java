@@ -0,0 +1,56 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Hands out cheque ids from cheque_sequence in blocks, so inserting a chunk does
+ * not cost one sequence round-trip per row. A block is fetched with a single
+ * query and kept in memory until used up; the allocator is shared by all
+ * dbStep partitions.
+ *
+ * Ids left in a block when the JVM stops are simply never used, as with any
+ * sequence cache.
+ */
+public class ChequeIdAllocator {
+
+    private static final String BLOCK_SQL = "SELECT cheque_sequence.NEXTVAL FROM dual CONNECT BY LEVEL <= ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int blockSize;
+
+    private long[] block = new long[0];
+    private int next = 0;
+
+    public ChequeIdAllocator(DataSource dataSource, int blockSize) {
+        this.blockSize = blockSize;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        // Bring the whole block back in one round-trip instead of the driver's default of 10 rows
+        this.jdbcTemplate.setFetchSize(blockSize);
+    }
+
+    public synchronized long[] nextIds(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            if (next == block.length) {
+                refill(Math.max(blockSize, count - i));
+            }
+            ids[i] = block[next++];
+        }
+        return ids;
+    }
+
+    private void refill(int size) {
+        long[] values = new long[size];
+        int[] filled = {0};
+        jdbcTemplate.query(BLOCK_SQL, rs -> {
+            values[filled[0]++] = rs.getLong(1);
+        }, size);
+        if (filled[0] != size) {
+            throw new IllegalStateException("Expected " + size + " ids from cheque_sequence, got " + filled[0]);
+        }
+        block = values;
+        next = 0;
+    }
+}
@@ -0,0 +1,117 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Inserts cheques with ids reserved up front by {@link ChequeIdAllocator} and
+ * positional parameters bound straight from the getters, sending the chunk to
+ * the database in JDBC batches of {@code batchSize} rows.
+ *
+ * With ignoreDuplicates the rows go through a MERGE that only inserts cheque
+ * numbers not already in the table, so writing the same cheques twice (e.g. a
+ * redelivered Kafka batch) leaves a single copy instead of failing.
+ *
+ * The rows actually inserted are reported, per status, to
+ * {@link ChequeStatusCounters}.
+ */
+public class ChequeJdbcWriter implements ItemWriter<Cheque> {
+
+    static final String INSERT_SQL = """
+            INSERT INTO cheques (
+                id,
+                cheque_number,
+                rio,
+                operation_type,
+                beneficiary_rib,
+                beneficiary_bank,
+                sender_rib,
+                sender_bank,
+                amount,
+                status
+            ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    static final String MERGE_SQL = """
+            MERGE INTO cheques c
+            USING (SELECT ? id, ? cheque_number, ? rio, ? operation_type, ? beneficiary_rib,
+                          ? beneficiary_bank, ? sender_rib, ? sender_bank, ? amount, ? status FROM dual) s
+            ON (c.cheque_number = s.cheque_number)
+            WHEN NOT MATCHED THEN INSERT (
+                id, cheque_number, rio, operation_type, beneficiary_rib,
+                beneficiary_bank, sender_rib, sender_bank, amount, status
+            ) VALUES (
+                s.id, s.cheque_number, s.rio, s.operation_type, s.beneficiary_rib,
+                s.beneficiary_bank, s.sender_rib, s.sender_bank, s.amount, s.status
+            )
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ChequeIdAllocator idAllocator;
+    private final int batchSize;
+    private boolean ignoreDuplicates = false;
+    private ChequeStatusCounters statusCounters;
+
+    public ChequeJdbcWriter(DataSource dataSource, ChequeIdAllocator idAllocator, int batchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.idAllocator = idAllocator;
+        this.batchSize = batchSize;
+    }
+
+    public void setIgnoreDuplicates(boolean ignoreDuplicates) {
+        this.ignoreDuplicates = ignoreDuplicates;
+    }
+
+    public void setStatusCounters(ChequeStatusCounters statusCounters) {
+        this.statusCounters = statusCounters;
+    }
+
+    @Override
+    public void write(Chunk<? extends Cheque> chunk) throws Exception {
+        List<? extends Cheque> items = chunk.getItems();
+        long[] ids = idAllocator.nextIds(items.size());
+        for (int i = 0; i < ids.length; i++) {
+            items.get(i).setId(ids[i]);
+        }
+
+        int[][] updateCounts = jdbcTemplate.batchUpdate(ignoreDuplicates ? MERGE_SQL : INSERT_SQL, items, batchSize, (ps, cheque) -> {
+            ps.setLong(1, cheque.getId());
+            ps.setLong(2, cheque.getCheque_number());
+            ps.setString(3, cheque.getRio());
+            ps.setShort(4, cheque.getOperation_type());
+            ps.setString(5, cheque.getBeneficiary_rib());
+            ps.setShort(6, cheque.getBeneficiary_bank());
+            ps.setString(7, cheque.getSender_rib());
+            ps.setShort(8, cheque.getSender_bank());
+            ps.setInt(9, cheque.getAmount());
+            ps.setString(10, cheque.getStatus());
+        });
+        if (statusCounters != null) {
+            countInserted(items, updateCounts);
+        }
+    }
+
+    private void countInserted(List<? extends Cheque> items, int[][] updateCounts) {
+        Map<String, Long> inserted = new HashMap<>();
+        int item = 0;
+        for (int[] batch : updateCounts) {
+            for (int count : batch) {
+                // A MERGE reports 0 for a duplicate; SUCCESS_NO_INFO counts as inserted until reconciliation
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    inserted.merge(items.get(item).getStatus(), 1L, Long::sum);
+                }
+                item++;
+            }
+        }
+        inserted.forEach(statusCounters::inserted);
+    }
+}
@@ -1,26 +1,25 @@
 package dz.eadn.thecloudbatch;
 
 import javax.sql.DataSource;
-import java.io.File;
 
 import org.springframework.batch.core.*;
 import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.job.builder.JobBuilder;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.step.builder.StepBuilder;
-import org.springframework.batch.item.database.BeanPropertyItemSqlParameterSourceProvider;
-import org.springframework.batch.item.database.JdbcBatchItemWriter;
 import org.springframework.batch.item.database.JdbcCursorItemReader;
-import org.springframework.batch.item.database.builder.JdbcBatchItemWriterBuilder;
 import org.springframework.batch.item.database.builder.JdbcCursorItemReaderBuilder;
-import org.springframework.batch.item.file.*;
-import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
-import org.springframework.batch.item.file.mapping.BeanWrapperFieldSetMapper;
+import org.springframework.batch.item.support.CompositeItemWriter;
+import org.springframework.batch.item.support.builder.CompositeItemWriterBuilder;
 import org.springframework.batch.item.ItemProcessor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.core.io.*;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.transaction.PlatformTransactionManager;
 
@@ -29,39 +28,42 @@ import dz.eadn.thecloudbatch.model.Cheque;
 @Configuration
 public class ChequeJob {
 
-	// dbStep
+    // dbWorkerStep:remise-<file name>
+    private static final String REMISE_PARTITION_PREFIX = "remise-";
+    // Prefix of the LOT writer's checkpoint keys, read back by the ORD step
+    private static final String LOT_WRITER_NAME = "lotFileWriter";
+
+	// dbStep: one partition per remise file of the run, named after it so a restart matches them by file
     @Bean
     @StepScope
-    public MultiResourceItemReader<Cheque> multiChequeReader(
-            @Value("#{jobParameters['remisesDir']}") String remisesDir) {
-        MultiResourceItemReader<Cheque> reader = new MultiResourceItemReader<>();
-        File dir = new File(remisesDir);
-        File[] files = dir.listFiles((d, name) -> name.endsWith(".remise") && !name.endsWith(".remise.DONE"));
-        Resource[] resources = new Resource[files != null ? files.length : 0];
-        for (int i = 0; i < resources.length; i++) {
-            resources[i] = new FileSystemResource(files[i]);
-        }
-        reader.setResources(resources);
-        reader.setDelegate(chequeFileReader());
-        return reader;
+    public FilePartitioner remisePartitioner(
+            @Value("#{jobParameters['remisesDir']}") String remisesDir,
+            @Value("#{jobParameters['remiseFiles']}") String remiseFiles) {
+        return new FilePartitioner(remisesDir, FileMarkingTasklet.remiseFilter(remiseFiles), REMISE_PARTITION_PREFIX);
     }
     
-    // dbStep
+    // dbStep (one instance per partition)
     @Bean
     @StepScope
-    public FlatFileItemReader<Cheque> chequeFileReader() {
-        BeanWrapperFieldSetMapper<Cheque> fieldSetMapper = new BeanWrapperFieldSetMapper<>();
-        fieldSetMapper.setTargetType(Cheque.class);
-        fieldSetMapper.setDistanceLimit(2);
-        return new FlatFileItemReaderBuilder<Cheque>()
-                .name("chequeReader")
-                .linesToSkip(1)
-                .delimited()
-                .delimiter(".")
-                .names("rio", "operation_type", "beneficiary_rib", 
-                        "beneficiary_bank","cheque_number", "sender_rib", "sender_bank", "amount")
-                .fieldSetMapper(fieldSetMapper)
-                .build();
+    public MappedRemiseItemReader chequeFileReader(
+            @Value("#{stepExecutionContext['fileName']}") Resource remise) {
+        MappedRemiseItemReader reader = new MappedRemiseItemReader();
+        reader.setName("chequeReader");
+        reader.setResource(remise);
+        reader.setLinesToSkip(1);
+        reader.setLineMapper(new RemiseLineMapper());
+        return reader;
+    }
+
+    // Shared by the partitioned steps
+    @Bean
+    public TaskExecutor batchTaskExecutor(
+            @Value("${batch.partition.concurrency:4}") int concurrency,
+            @Value("${batch.partition.virtual-threads:false}") boolean virtualThreads) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("batch-partition-");
+        executor.setVirtualThreads(virtualThreads);
+        executor.setConcurrencyLimit(concurrency);
+        return executor;
     }
 
     // fileStep
@@ -76,59 +78,85 @@ public class ChequeJob {
                 .build();
     }
     
+    // fileStep
+    @Bean
+    public BankRangePartitioner bankRangePartitioner(DataSource dataSource) {
+        return new BankRangePartitioner(dataSource);
+    }
+
+    // fileStep (one instance per bank range): only the pending rows, so each run reads them exactly once
     @Bean
     @StepScope
-    public ItemProcessor<Cheque, Cheque> toBeIntegratedProcessor() {
-        return item -> {
-            if ("to be integrated".equals(item.getStatus())) {
-                return item;
-            }
-            return null; // Skip items that don't match
-        };
+    public JdbcCursorItemReader<Cheque> pendingChequeReader(
+            DataSource dataSource,
+            @Value("#{stepExecutionContext['minBank']}") Integer minBank,
+            @Value("#{stepExecutionContext['maxBank']}") Integer maxBank) {
+        return new JdbcCursorItemReaderBuilder<Cheque>()
+                .name("pendingChequeReader")
+                .dataSource(dataSource)
+                .sql("""
+                    SELECT * FROM cheques
+                    WHERE status = 'to be integrated' AND beneficiary_bank BETWEEN ? AND ?
+                    ORDER BY beneficiary_bank, operation_type, id
+                    """)
+                .queryArguments(minBank, maxBank)
+                .rowMapper(new BeanPropertyRowMapper<>(Cheque.class))
+                // Committed rows leave the result set, so a restart must not skip ahead by read count
+                .saveState(false)
+                .build();
     }
 
+    // dbStep
+    @Bean
+    public ChequeIdAllocator chequeIdAllocator(
+            DataSource dataSource,
+            @Value("${batch.cheque.id-block-size:1000}") int blockSize) {
+        return new ChequeIdAllocator(dataSource, blockSize);
+    }
 
+    // fileStep and craWriter
+    @Bean
+    public LotNumberAllocator lotNumberAllocator(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            @Value("${batch.lot.block-size:10}") int blockSize) {
+        return new LotNumberAllocator(dataSource, transactionManager, blockSize);
+    }
 
     // dbStep
     @Bean
-    public JdbcBatchItemWriter<Cheque> chequeJdbcWriter(DataSource dataSource) {
-        return new JdbcBatchItemWriterBuilder<Cheque>()
-                .itemSqlParameterSourceProvider(new BeanPropertyItemSqlParameterSourceProvider<>())
-                .sql("""
-                    INSERT INTO cheques (
-                        id,
-                        cheque_number,
-                        rio,
-                        operation_type,
-                        beneficiary_rib,
-                        beneficiary_bank,
-                        sender_rib,
-                        sender_bank,
-                        amount,
-                        status
-                    ) VALUES (
-                        cheque_sequence.NEXTVAL,
-                        :cheque_number,
-                        :rio,
-                        :operation_type,
-                        :beneficiary_rib,
-                        :beneficiary_bank,
-                        :sender_rib,
-                        :sender_bank,
-                        :amount,
-                        :status
-                    )
-                """)
-                .dataSource(dataSource)
-                .build();
+    public ChequeJdbcWriter chequeJdbcWriter(
+            DataSource dataSource,
+            ChequeIdAllocator chequeIdAllocator,
+            ChequeStatusCounters chequeStatusCounters,
+            @Value("${batch.cheque.insert-batch-size:1000}") int insertBatchSize) {
+        ChequeJdbcWriter writer = new ChequeJdbcWriter(dataSource, chequeIdAllocator, insertBatchSize);
+        writer.setStatusCounters(chequeStatusCounters);
+        return writer;
     }
 
     // fileStep
     @Bean
     @StepScope
     public CustomItemWriter dynamicChequeFileWriter(
-            @Value("#{jobParameters['outputDirectory'] ?: '/output'}") String outputDirectory) {
-        return new CustomItemWriter();
+            LotNumberAllocator lotNumberAllocator,
+            JobArtifactRegistry jobArtifactRegistry,
+            @Value("#{jobParameters['outputDirectory'] ?: '/output'}") String outputDirectory,
+            @Value("${batch.output.async-flush:false}") boolean asyncFlush,
+            @Value("${batch.output.max-open-files:64}") int maxOpenFiles) {
+        CustomItemWriter writer = new CustomItemWriter(
+            outputDirectory,
+            "LOT",
+            new String[]{"rio", "operation_type", "beneficiary_rib", "beneficiary_bank", "cheque_number", "sender_rib", "sender_bank", "amount"},
+            "rio.operation_type.beneficiary_rib.beneficiary_bank.cheque_number.sender_rib.sender_bank.amount",
+            "."
+        );
+        writer.setName(LOT_WRITER_NAME);
+        writer.setAsyncFlush(asyncFlush);
+        writer.setMaxOpenFiles(maxOpenFiles);
+        writer.setLotNumberAllocator(lotNumberAllocator);
+        writer.setArtifactRegistry(jobArtifactRegistry);
+        return writer;
     }
     
 
@@ -150,23 +178,57 @@ public class ChequeJob {
     @Bean
     @StepScope
     public FileMarkingTasklet fileMarkingTasklet(
-            @Value("#{jobParameters['remisesDir']}") String remisesDir) {
-        return new FileMarkingTasklet(remisesDir);
+            JobRepository jobRepository,
+            @Value("#{jobParameters['remisesDir']}") String remisesDir,
+            @Value("#{jobParameters['remiseFiles']}") String remiseFiles) {
+        FileMarkingTasklet tasklet = new FileMarkingTasklet(remisesDir, remiseFiles);
+        tasklet.setIngestedBy(jobRepository, "dbWorkerStep:" + REMISE_PARTITION_PREFIX);
+        return tasklet;
     }
 
+    // dbStep and fileStep, managers and workers
     @Bean
-    public Step dbStep(
+    public JobProgressListener jobProgressListener(
+            JobProgressBroadcaster jobProgressBroadcaster,
+            JobArtifactRegistry jobArtifactRegistry) {
+        return new JobProgressListener(jobProgressBroadcaster, jobArtifactRegistry);
+    }
+
+    @Bean
+    public Step dbWorkerStep(
             JobRepository jobRepository,
             PlatformTransactionManager transactionManager,
-            MultiResourceItemReader<Cheque> multiChequeReader,
+            MappedRemiseItemReader chequeFileReader,
             ItemProcessor<Cheque, Cheque> chequeProcessor,
-            JdbcBatchItemWriter<Cheque> chequeJdbcWriter
+            ChequeJdbcWriter chequeJdbcWriter,
+            JobProgressListener jobProgressListener,
+            Environment environment
     ) {
-        return new StepBuilder("dbStep", jobRepository)
-                .<Cheque, Cheque>chunk(10, transactionManager)
-                .reader(multiChequeReader)
+        AdaptiveChunkPolicy chunkPolicy = AdaptiveChunkPolicy.forStep(environment, "dbWorkerStep");
+        return new StepBuilder("dbWorkerStep", jobRepository)
+                .<Cheque, Cheque>chunk(chunkPolicy, transactionManager)
+                .reader(chequeFileReader)
                 .processor(chequeProcessor)
                 .writer(chequeJdbcWriter)
+                .listener(chunkPolicy)
+                .listener((ChunkListener) jobProgressListener)
+                .listener((StepExecutionListener) jobProgressListener)
+                .build();
+    }
+
+    @Bean
+    public Step dbStep(
+            JobRepository jobRepository,
+            Step dbWorkerStep,
+            FilePartitioner remisePartitioner,
+            TaskExecutor batchTaskExecutor,
+            JobProgressListener jobProgressListener
+    ) {
+        return new StepBuilder("dbStep", jobRepository)
+                .partitioner("dbWorkerStep", remisePartitioner)
+                .step(dbWorkerStep)
+                .taskExecutor(batchTaskExecutor)
+                .listener(jobProgressListener)
                 .build();
     }
 
@@ -183,63 +245,103 @@ public class ChequeJob {
     
     @Bean
     @StepScope
-    public JdbcBatchItemWriter<Cheque> statusUpdateWriter(DataSource dataSource) {
-        return new JdbcBatchItemWriterBuilder<Cheque>()
-                .itemSqlParameterSourceProvider(new BeanPropertyItemSqlParameterSourceProvider<>())
-                .sql("UPDATE cheques SET status = 'integrated' WHERE id = :id")
-                .dataSource(dataSource)
+    public ChequeStatusWriter statusUpdateWriter(DataSource dataSource, ChequeStatusCounters chequeStatusCounters) {
+        ChequeStatusWriter writer = new ChequeStatusWriter(dataSource,
+                ChequeStatusCounters.TO_BE_INTEGRATED, ChequeStatusCounters.INTEGRATED, false);
+        writer.setStatusCounters(chequeStatusCounters);
+        return writer;
+    }
+
+    // fileStep: LOT lines and the status change commit in the same chunk transaction
+    @Bean
+    @StepScope
+    public CompositeItemWriter<Cheque> lotAndStatusWriter(
+            CustomItemWriter dynamicChequeFileWriter,
+            ChequeStatusWriter statusUpdateWriter) {
+        return new CompositeItemWriterBuilder<Cheque>()
+                .delegates(dynamicChequeFileWriter, statusUpdateWriter)
                 .build();
     }
 
     @Bean
-    public Step updateStatusStep(
+    public Step fileWorkerStep(
             JobRepository jobRepository,
             PlatformTransactionManager transactionManager,
-            JdbcCursorItemReader<Cheque> databaseChequeReader,
-            ItemProcessor<Cheque, Cheque> toBeIntegratedProcessor,
-            JdbcBatchItemWriter<Cheque> statusUpdateWriter
+            JdbcCursorItemReader<Cheque> pendingChequeReader,
+            CompositeItemWriter<Cheque> lotAndStatusWriter,
+            JobProgressListener jobProgressListener,
+            Environment environment
     ) {
-        return new StepBuilder("updateStatusStep", jobRepository)
-                .<Cheque, Cheque>chunk(10, transactionManager)
-                .reader(databaseChequeReader)
-                .processor(toBeIntegratedProcessor)
-                .writer(statusUpdateWriter)
+        AdaptiveChunkPolicy chunkPolicy = AdaptiveChunkPolicy.forStep(environment, "fileWorkerStep");
+        return new StepBuilder("fileWorkerStep", jobRepository)
+                .<Cheque, Cheque>chunk(chunkPolicy, transactionManager)
+                .reader(pendingChequeReader)
+                .writer(lotAndStatusWriter)
+                .listener(chunkPolicy)
+                .listener((ChunkListener) jobProgressListener)
+                .listener((StepExecutionListener) jobProgressListener)
                 .build();
     }
 
-
     @Bean
     public Step fileStep(
             JobRepository jobRepository,
-            PlatformTransactionManager transactionManager,
-            JdbcCursorItemReader<Cheque> databaseChequeReader,
-            ItemProcessor<Cheque, Cheque> toBeIntegratedProcessor,
-            CustomItemWriter dynamicChequeFileWriter
+            Step fileWorkerStep,
+            BankRangePartitioner bankRangePartitioner,
+            TaskExecutor batchTaskExecutor,
+            JobProgressListener jobProgressListener,
+            @Value("${batch.partition.grid-size:4}") int gridSize
     ) {
         return new StepBuilder("fileStep", jobRepository)
-                .<Cheque, Cheque>chunk(10, transactionManager)
-                .reader(databaseChequeReader)
-                .processor(toBeIntegratedProcessor)
-                .writer(dynamicChequeFileWriter)
+                .partitioner("fileWorkerStep", bankRangePartitioner)
+                .step(fileWorkerStep)
+                .gridSize(gridSize)
+                .taskExecutor(batchTaskExecutor)
+                .listener(jobProgressListener)
                 .build();
     }
     
 
     
 
+    // ordFileStep: the one ORD file of the run, once every fileStep partition is done
+    @Bean
+    @StepScope
+    public OrdFileTasklet ordFileTasklet(
+            JobExplorer jobExplorer,
+            JobArtifactRegistry jobArtifactRegistry,
+            @Value("#{jobParameters['outputDirectory'] ?: '/output'}") String outputDirectory) {
+        OrdFileTasklet tasklet = new OrdFileTasklet(jobExplorer, outputDirectory, "fileWorkerStep:", LOT_WRITER_NAME);
+        tasklet.setArtifactRegistry(jobArtifactRegistry);
+        return tasklet;
+    }
+
+    @Bean
+    public Step ordFileStep(
+            JobRepository jobRepository,
+            PlatformTransactionManager transactionManager,
+            OrdFileTasklet ordFileTasklet,
+            JobProgressListener jobProgressListener
+    ) {
+        return new StepBuilder("ordFileStep", jobRepository)
+                .tasklet(ordFileTasklet, transactionManager)
+                .listener(jobProgressListener)
+                .build();
+    }
+
     @Bean
     public Job chequeJobThing(
             JobRepository jobRepository,
             Step dbStep,
             Step markFilesStep,
             Step fileStep,
-            Step updateStatusStep
+            Step ordFileStep
     ) {
         return new JobBuilder("chequeJob", jobRepository)
                 .start(dbStep)
                 .next(markFilesStep)
                 .next(fileStep)
-                .next(updateStatusStep) 
+                .next(ordFileStep)
                 .build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.backoff.FixedBackOff;
+
+/**
+ * Streaming ingestion: cheques consumed from Kafka by {@link ChequeKafkaListener}
+ * and merged into the cheques table with ids from the shared ChequeIdAllocator.
+ * Off unless batch.kafka.enabled=true.
+ */
+@Configuration
+@ConditionalOnProperty(name = "batch.kafka.enabled", havingValue = "true")
+public class ChequeKafkaIngestion {
+
+    @Bean
+    public ChequeJdbcWriter kafkaChequeWriter(
+            DataSource dataSource,
+            ChequeIdAllocator chequeIdAllocator,
+            ChequeStatusCounters chequeStatusCounters,
+            @Value("${batch.cheque.insert-batch-size:1000}") int insertBatchSize) {
+        ChequeJdbcWriter writer = new ChequeJdbcWriter(dataSource, chequeIdAllocator, insertBatchSize);
+        writer.setIgnoreDuplicates(true);
+        writer.setStatusCounters(chequeStatusCounters);
+        return writer;
+    }
+
+    @Bean
+    public ChequeKafkaListener chequeKafkaListener(
+            ChequeJdbcWriter kafkaChequeWriter,
+            PlatformTransactionManager transactionManager) {
+        return new ChequeKafkaListener(kafkaChequeWriter, transactionManager);
+    }
+
+    // A batch that cannot be written (database down...) is retried until it can,
+    // instead of being skipped after a few attempts with its offsets committed
+    @Bean
+    public CommonErrorHandler chequeKafkaErrorHandler(
+            @Value("${batch.kafka.retry-interval-ms:5000}") long retryIntervalMs) {
+        return new DefaultErrorHandler(new FixedBackOff(retryIntervalMs, FixedBackOff.UNLIMITED_ATTEMPTS));
+    }
+}
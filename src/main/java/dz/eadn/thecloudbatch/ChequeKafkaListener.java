@@ -0,0 +1,70 @@
+package dz.eadn.thecloudbatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Consumes cheques streamed on the cheque topic, one remise-format line per
+ * record, and writes each polled batch to the cheques table in one transaction.
+ *
+ * Offsets are committed only after the batch has been written, so a failure or
+ * a rebalance redelivers it; the writer ignores cheque numbers already in the
+ * table, which makes the redelivery harmless. Lines that do not parse are
+ * logged and skipped rather than blocking the partition.
+ */
+public class ChequeKafkaListener {
+
+    private final ItemWriter<Cheque> writer;
+    private final TransactionTemplate transactionTemplate;
+
+    public ChequeKafkaListener(ItemWriter<Cheque> writer, PlatformTransactionManager transactionManager) {
+        this.writer = writer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @KafkaListener(id = "chequeIngestion",
+            topics = "${batch.kafka.topic:cheques}",
+            groupId = "${batch.kafka.group-id:thecloudbatch-cheques}",
+            batch = "true")
+    public void onCheques(List<ConsumerRecord<String, String>> records) {
+        // One mapper per call: it reuses buffers between lines
+        RemiseLineMapper lineMapper = new RemiseLineMapper();
+        List<Cheque> cheques = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, String> record : records) {
+            String line = record.value();
+            if (line == null || line.isBlank() || line.startsWith("rio.")) {
+                continue;
+            }
+            try {
+                Cheque cheque = lineMapper.mapLine(line.strip(), 0);
+                cheque.setStatus("to be integrated");
+                cheques.add(cheque);
+            } catch (Exception e) {
+                System.err.println("Skipping cheque record " + record.topic() + "-" + record.partition()
+                        + "@" + record.offset() + ": " + e.getMessage());
+            }
+        }
+        if (cheques.isEmpty()) {
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            try {
+                writer.write(new Chunk<>(cheques));
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to write " + cheques.size() + " cheques", e);
+            }
+        });
+    }
+}
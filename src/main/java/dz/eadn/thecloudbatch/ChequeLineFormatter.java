@@ -0,0 +1,142 @@
+package dz.eadn.thecloudbatch;
+
+import java.nio.ByteBuffer;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Formats cheques as delimited lines straight into a byte buffer, reading the
+ * fields through their getters rather than a BeanWrapperFieldExtractor and
+ * writing numbers digit by digit, so no intermediate String or Object[] is
+ * created per record. Output is identical to the DelimitedLineAggregator setup
+ * it replaces (numbers without padding, platform line separator).
+ */
+public class ChequeLineFormatter {
+
+    private static final int RIO = 0;
+    private static final int OPERATION_TYPE = 1;
+    private static final int BENEFICIARY_RIB = 2;
+    private static final int BENEFICIARY_BANK = 3;
+    private static final int CHEQUE_NUMBER = 4;
+    private static final int SENDER_RIB = 5;
+    private static final int SENDER_BANK = 6;
+    private static final int AMOUNT = 7;
+
+    // Longest decimal rendering of a long, sign included
+    private static final int MAX_NUMBER_LENGTH = 20;
+
+    private final int[] fields;
+    private final byte[] delimiter;
+    private final byte[] lineSeparator;
+    private final byte[] digits = new byte[MAX_NUMBER_LENGTH];
+
+    public ChequeLineFormatter(String[] fieldNames, String delimiter) {
+        this.fields = new int[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            fields[i] = switch (fieldNames[i]) {
+                case "rio" -> RIO;
+                case "operation_type" -> OPERATION_TYPE;
+                case "beneficiary_rib" -> BENEFICIARY_RIB;
+                case "beneficiary_bank" -> BENEFICIARY_BANK;
+                case "cheque_number" -> CHEQUE_NUMBER;
+                case "sender_rib" -> SENDER_RIB;
+                case "sender_bank" -> SENDER_BANK;
+                case "amount" -> AMOUNT;
+                default -> throw new IllegalArgumentException("Unknown cheque field: " + fieldNames[i]);
+            };
+        }
+        this.delimiter = bytes(delimiter);
+        this.lineSeparator = bytes(System.lineSeparator());
+    }
+
+    /**
+     * Appends one line to the buffer, growing it when needed, and returns the
+     * buffer to keep using (the same one unless it had to grow).
+     */
+    public ByteBuffer append(ByteBuffer buffer, Cheque cheque) {
+        buffer = ensureRemaining(buffer, maxLength(cheque));
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                buffer.put(delimiter);
+            }
+            switch (fields[i]) {
+                case RIO -> putText(buffer, cheque.getRio());
+                case OPERATION_TYPE -> putNumber(buffer, cheque.getOperation_type());
+                case BENEFICIARY_RIB -> putText(buffer, cheque.getBeneficiary_rib());
+                case BENEFICIARY_BANK -> putNumber(buffer, cheque.getBeneficiary_bank());
+                case CHEQUE_NUMBER -> putNumber(buffer, cheque.getCheque_number());
+                case SENDER_RIB -> putText(buffer, cheque.getSender_rib());
+                case SENDER_BANK -> putNumber(buffer, cheque.getSender_bank());
+                case AMOUNT -> putNumber(buffer, cheque.getAmount());
+                default -> throw new IllegalStateException();
+            }
+        }
+        buffer.put(lineSeparator);
+        return buffer;
+    }
+
+    /**
+     * Appends a header line (any text) to the buffer.
+     */
+    public ByteBuffer appendLine(ByteBuffer buffer, String line) {
+        byte[] bytes = bytes(line);
+        buffer = ensureRemaining(buffer, bytes.length + lineSeparator.length);
+        return buffer.put(bytes).put(lineSeparator);
+    }
+
+    public static ByteBuffer ensureRemaining(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        return larger.put(buffer);
+    }
+
+    private int maxLength(Cheque cheque) {
+        int length = lineSeparator.length + fields.length * (delimiter.length + MAX_NUMBER_LENGTH);
+        length += length(cheque.getRio()) + length(cheque.getBeneficiary_rib()) + length(cheque.getSender_rib());
+        return length;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    // Same as the old extractor: a null field is written as an empty string
+    private static void putText(ByteBuffer buffer, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            buffer.put(c < 0x100 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private void putNumber(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.put(bytes(Long.toString(value)));
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, i, digits.length - i);
+    }
+
+    private static byte[] bytes(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = text.charAt(i);
+            bytes[i] = c < 0x100 ? (byte) c : (byte) '?';
+        }
+        return bytes;
+    }
+}
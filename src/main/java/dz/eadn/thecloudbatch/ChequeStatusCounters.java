@@ -0,0 +1,164 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Number of cheques in each status, kept in memory so the dashboard does not
+ * GROUP BY the whole cheques table on every refresh.
+ *
+ * The writers that insert cheques or change their status report what they did
+ * with {@link #inserted} and {@link #moved}; inside a transaction the change is
+ * applied once it commits, so a rolled back chunk leaves the counts alone.
+ * Changes made outside these writers (manual SQL, rows whose update count the
+ * driver did not report) are picked up by {@link #reconcile()}, which reloads
+ * the counts from the table every batch.status-counts.reconcile-interval-ms.
+ *
+ * The counts are eventually consistent, not exact. A writer's change shows up
+ * shortly after its commit. The GROUP BY cannot tell which commits it saw, so
+ * a reconciliation during which a writer committed is dropped, and the counts
+ * are corrected by the next quiet one. A commit whose afterCommit lands just
+ * after the query can still be counted twice until then.
+ */
+@Component
+public class ChequeStatusCounters {
+
+    static final String TO_BE_INTEGRATED = "to be integrated";
+    static final String INTEGRATED = "integrated";
+    static final String PROCESSED = "processed";
+
+    private static final List<String> DISPLAY_ORDER = List.of(TO_BE_INTEGRATED, INTEGRATED, PROCESSED);
+
+    private static final String COUNT_SQL = "SELECT status, COUNT(*) FROM cheques GROUP BY status";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    // Set when a writer's change is applied while a reconciliation query runs
+    private boolean reconciling;
+    private boolean changedDuringReconcile;
+
+    public ChequeStatusCounters(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void inserted(String status, long count) {
+        if (count > 0) {
+            onCommit(Map.of(status, count));
+        }
+    }
+
+    public void moved(String fromStatus, String toStatus, long count) {
+        if (count > 0) {
+            onCommit(Map.of(fromStatus, -count, toStatus, count));
+        }
+    }
+
+    /**
+     * The counts per status, 'to be integrated', 'integrated' and 'processed'
+     * first, as {status, count} entries.
+     */
+    public List<Map<String, Object>> snapshot() {
+        List<Map<String, Object>> snapshot = new ArrayList<>();
+        for (String status : DISPLAY_ORDER) {
+            snapshot.add(entry(status, count(status)));
+        }
+        counts.forEach((status, count) -> {
+            if (!DISPLAY_ORDER.contains(status) && count.get() != 0) {
+                snapshot.add(entry(status, count.get()));
+            }
+        });
+        return snapshot;
+    }
+
+    public long total() {
+        long total = 0;
+        for (AtomicLong count : counts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${batch.status-counts.reconcile-interval-ms:300000}")
+    public void reconcile() {
+        synchronized (this) {
+            reconciling = true;
+            changedDuringReconcile = false;
+        }
+        Map<String, Long> actual = new HashMap<>();
+        try {
+            jdbcTemplate.query(COUNT_SQL, rs -> {
+                actual.put(rs.getString(1), rs.getLong(2));
+            });
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                reconciling = false;
+            }
+            System.err.println("Status count reconciliation failed: " + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            reconciling = false;
+            if (changedDuringReconcile) {
+                // The query may or may not have seen those changes: keep the counts until a quiet run
+                System.out.println("Status count reconciliation skipped: cheques changed while counting");
+                return;
+            }
+            counts.keySet().removeIf(status -> !actual.containsKey(status));
+            actual.forEach((status, count) -> {
+                long drift = count - counter(status).getAndSet(count);
+                if (drift != 0) {
+                    System.out.println("Status count of '" + status + "' corrected by " + drift);
+                }
+            });
+        }
+    }
+
+    private void onCommit(Map<String, Long> deltas) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(deltas);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(deltas);
+            }
+        });
+    }
+
+    private synchronized void apply(Map<String, Long> deltas) {
+        deltas.forEach((status, delta) -> counter(status).addAndGet(delta));
+        if (reconciling) {
+            changedDuringReconcile = true;
+        }
+    }
+
+    private AtomicLong counter(String status) {
+        return counts.computeIfAbsent(status, s -> new AtomicLong());
+    }
+
+    private long count(String status) {
+        AtomicLong count = counts.get(status);
+        return count != null ? count.get() : 0;
+    }
+
+    private static Map<String, Object> entry(String status, long count) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("status", status);
+        entry.put("count", count);
+        return entry;
+    }
+}
@@ -0,0 +1,79 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.sql.Statement;
+import java.util.List;
+
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Moves the cheques of a chunk from one status to another, by id or by
+ * cheque number, in JDBC batches, and reports the rows actually moved to
+ * {@link ChequeStatusCounters}.
+ *
+ * With assertUpdates every item must move exactly one row, as with
+ * JdbcBatchItemWriter; without it, items whose cheque is missing or already
+ * in another status are left alone.
+ */
+public class ChequeStatusWriter implements ItemWriter<Cheque> {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String fromStatus;
+    private final String toStatus;
+    private final boolean byChequeNumber;
+    private final String sql;
+    private boolean assertUpdates = true;
+    private ChequeStatusCounters statusCounters;
+
+    public ChequeStatusWriter(DataSource dataSource, String fromStatus, String toStatus, boolean byChequeNumber) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.fromStatus = fromStatus;
+        this.toStatus = toStatus;
+        this.byChequeNumber = byChequeNumber;
+        this.sql = "UPDATE cheques SET status = ? WHERE " + (byChequeNumber ? "cheque_number" : "id") + " = ? AND status = ?";
+    }
+
+    public void setAssertUpdates(boolean assertUpdates) {
+        this.assertUpdates = assertUpdates;
+    }
+
+    public void setStatusCounters(ChequeStatusCounters statusCounters) {
+        this.statusCounters = statusCounters;
+    }
+
+    @Override
+    public void write(Chunk<? extends Cheque> chunk) throws Exception {
+        List<? extends Cheque> items = chunk.getItems();
+        int[][] updateCounts = jdbcTemplate.batchUpdate(sql, items, items.size(), (ps, cheque) -> {
+            ps.setString(1, toStatus);
+            if (byChequeNumber) {
+                ps.setLong(2, cheque.getCheque_number());
+            } else {
+                ps.setLong(2, cheque.getId());
+            }
+            ps.setString(3, fromStatus);
+        });
+
+        long moved = 0;
+        int item = 0;
+        for (int[] batch : updateCounts) {
+            for (int count : batch) {
+                if (count == 0 && assertUpdates) {
+                    throw new EmptyResultDataAccessException("Item " + item + " of " + items.size()
+                            + " did not update any '" + fromStatus + "' cheque", 1);
+                }
+                // SUCCESS_NO_INFO: the row was most likely moved; reconciliation corrects it otherwise
+                moved += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                item++;
+            }
+        }
+        if (statusCounters != null) {
+            statusCounters.moved(fromStatus, toStatus, moved);
+        }
+    }
+}
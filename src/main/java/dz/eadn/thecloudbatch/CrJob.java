@@ -15,6 +15,7 @@ import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -59,12 +60,15 @@ public class CrJob {
             JobRepository jobRepository,
             PlatformTransactionManager transactionManager,
             MultiResourceItemReader<String> multiResourceItemReader,
-            ItemWriter<String> dbWriter
+            ItemWriter<String> dbWriter,
+            Environment environment
     ) {
+        AdaptiveChunkPolicy chunkPolicy = AdaptiveChunkPolicy.forStep(environment, "fileToDbStep");
         return new StepBuilder("fileToDbStep", jobRepository)
-                .<String, String>chunk(10, transactionManager)
+                .<String, String>chunk(chunkPolicy, transactionManager)
                 .reader(multiResourceItemReader)
                 .writer(dbWriter)
+                .listener(chunkPolicy)
                 .build();
     }
 
@@ -0,0 +1,51 @@
+package dz.eadn.thecloudbatch;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.util.ResourceUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Moves the CRA file of a reconciliation partition to the archive directory once
+ * the partition has completed, so later runs neither list nor reprocess it.
+ * A failed partition leaves its file in place for the restart.
+ *
+ * A file that cannot be archived fails its partition, and so the job: left in
+ * place it would be reconciled again by the next run. The restart of that
+ * partition reads nothing new (its reader resumes at the end of the file) and
+ * retries the move.
+ */
+public class CraArchivingListener implements StepExecutionListener {
+
+    private final String archiveDirectory;
+
+    public CraArchivingListener(String archiveDirectory) {
+        this.archiveDirectory = archiveDirectory;
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (stepExecution.getStatus() != BatchStatus.COMPLETED
+                || !stepExecution.getExecutionContext().containsKey("fileName")) {
+            return null;
+        }
+        try {
+            File craFile = ResourceUtils.getFile(stepExecution.getExecutionContext().getString("fileName"));
+            Path archiveDir = Files.createDirectories(Path.of(archiveDirectory));
+            Files.move(craFile.toPath(), archiveDir.resolve(craFile.getName()), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Archived CRA file: " + craFile.getName());
+        } catch (Exception e) {
+            // Exceptions thrown from afterStep are only logged; fail the partition explicitly
+            stepExecution.setStatus(BatchStatus.FAILED);
+            stepExecution.addFailureException(e);
+            return ExitStatus.FAILED.addExitDescription("Failed to archive CRA file: " + e.getMessage());
+        }
+        return null;
+    }
+}
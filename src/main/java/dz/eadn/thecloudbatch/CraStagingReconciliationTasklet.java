@@ -0,0 +1,281 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Set-based alternative to the row-by-row craValidationStep: every CRA line is
+ * batch-inserted into cra_staging, matched against the integrated cheques with
+ * one UPDATE, and the matching cheques are moved to 'processed' with a second
+ * one. Lines without a match are written to a reject report next to the CRA
+ * file ({@code <cra file>.REJ}).
+ *
+ * Each call of {@link #execute} runs in its own transaction: one call per
+ * batch of staged lines, one for the reconciliation, one for the cleanup. The
+ * staged rows are keyed by the run id, the id of the first step execution, and
+ * the progress is saved through {@link ItemStream}, so a restart carries on
+ * with the rows already committed. The report is written once the
+ * reconciliation has committed, so it never lists lines of a rolled back run.
+ * Register the tasklet as a stream of its step.
+ */
+public class CraStagingReconciliationTasklet implements Tasklet, ItemStream {
+
+    private static final String INSERT_SQL = """
+            INSERT INTO cra_staging (
+                run_id, file_name, line_number, cheque_number, rio, operation_type,
+                beneficiary_rib, beneficiary_bank, sender_rib, sender_bank, amount
+            ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String MATCH_SQL = """
+            UPDATE cra_staging s SET cheque_id = (
+                SELECT c.id FROM cheques c
+                WHERE c.cheque_number = s.cheque_number AND c.status = 'integrated'
+                AND c.rio = s.rio AND c.operation_type = s.operation_type
+                AND c.beneficiary_rib = s.beneficiary_rib AND c.beneficiary_bank = s.beneficiary_bank
+                AND c.sender_rib = s.sender_rib AND c.sender_bank = s.sender_bank AND c.amount = s.amount
+            )
+            WHERE s.run_id = ?
+            """;
+
+    private static final String PROCESS_SQL = """
+            UPDATE cheques SET status = 'processed'
+            WHERE status = 'integrated'
+            AND id IN (SELECT cheque_id FROM cra_staging WHERE run_id = ? AND cheque_id IS NOT NULL)
+            """;
+
+    private static final String COUNT_REJECTS_SQL = "SELECT COUNT(*) FROM cra_staging WHERE run_id = ? AND cheque_id IS NULL";
+
+    private static final String REJECTS_SQL = """
+            SELECT file_name, rio, operation_type, beneficiary_rib, beneficiary_bank,
+                   cheque_number, sender_rib, sender_bank, amount
+            FROM cra_staging
+            WHERE run_id = ? AND cheque_id IS NULL
+            ORDER BY file_name, line_number
+            """;
+
+    private static final String CLEANUP_SQL = "DELETE FROM cra_staging WHERE run_id = ?";
+
+    private static final String RUN_ID_KEY = "cra.runId";
+    private static final String FILE_KEY = "cra.file";
+    private static final String RECONCILED_KEY = "cra.reconciled";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Resource[] craFiles;
+    private final String rejectDirectory;
+    private final int batchSize;
+    private ChequeStatusCounters statusCounters;
+
+    // Progress, saved in the step ExecutionContext after every call
+    private long runId;
+    private int fileIndex;
+    private boolean reconciled;
+    private boolean reported;
+    private MappedRemiseItemReader reader;
+    private ExecutionContext readerContext;
+
+    public CraStagingReconciliationTasklet(DataSource dataSource, Resource[] craFiles, String rejectDirectory, int batchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.craFiles = craFiles;
+        this.rejectDirectory = rejectDirectory;
+        this.batchSize = batchSize;
+    }
+
+    public void setStatusCounters(ChequeStatusCounters statusCounters) {
+        this.statusCounters = statusCounters;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        // Lines already staged by a failed execution keep the run id they were committed with
+        runId = executionContext.getLong(RUN_ID_KEY, -1);
+        fileIndex = executionContext.getInt(FILE_KEY, 0);
+        reconciled = executionContext.getInt(RECONCILED_KEY, 0) == 1;
+        reported = false;
+        readerContext = executionContext;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        executionContext.putLong(RUN_ID_KEY, runId);
+        executionContext.putInt(FILE_KEY, fileIndex);
+        executionContext.putInt(RECONCILED_KEY, reconciled ? 1 : 0);
+        if (reader != null) {
+            reader.update(executionContext);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        closeReader();
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        if (runId < 0) {
+            runId = chunkContext.getStepContext().getStepExecution().getId();
+        }
+        if (fileIndex < craFiles.length) {
+            stage(contribution);
+            return RepeatStatus.CONTINUABLE;
+        }
+        if (!reconciled) {
+            reconcile(contribution, chunkContext.getStepContext().getStepExecution().getExecutionContext());
+            return RepeatStatus.CONTINUABLE;
+        }
+        // Restarted after the reconciliation committed but before its report was written
+        if (!reported) {
+            writeRejects();
+        }
+        jdbcTemplate.update(CLEANUP_SQL, runId);
+        return RepeatStatus.FINISHED;
+    }
+
+    // Stages the next batch of lines of the current CRA file
+    private void stage(StepContribution contribution) throws Exception {
+        if (reader == null) {
+            reader = new MappedRemiseItemReader();
+            reader.setName("craStaging." + fileIndex);
+            reader.setResource(craFiles[fileIndex]);
+            reader.setLinesToSkip(1);
+            reader.open(readerContext);
+        }
+        List<Cheque> batch = new ArrayList<>(batchSize);
+        int firstLine = reader.getCurrentItemCount() + 1;
+        Cheque cheque;
+        while (batch.size() < batchSize && (cheque = reader.read()) != null) {
+            contribution.incrementReadCount();
+            batch.add(cheque);
+        }
+        insert(craFiles[fileIndex].getFilename(), firstLine, batch);
+        if (batch.size() < batchSize) {
+            closeReader();
+            fileIndex++;
+        }
+    }
+
+    private void reconcile(StepContribution contribution, ExecutionContext stepContext) {
+        jdbcTemplate.update(MATCH_SQL, runId);
+        int processed = jdbcTemplate.update(PROCESS_SQL, runId);
+        Integer rejected = jdbcTemplate.queryForObject(COUNT_REJECTS_SQL, Integer.class, runId);
+        contribution.incrementWriteCount(processed);
+        contribution.incrementFilterCount(rejected);
+        stepContext.putInt("cra.processed", processed);
+        stepContext.putInt("cra.rejected", rejected);
+        reconciled = true;
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                if (statusCounters != null) {
+                    statusCounters.moved(ChequeStatusCounters.INTEGRATED, ChequeStatusCounters.PROCESSED, processed);
+                }
+                writeRejects();
+                System.out.println("CRA reconciliation: " + processed + " processed, " + rejected + " rejected");
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    reconciled = false;
+                }
+            }
+        });
+    }
+
+    private void insert(String fileName, int firstLine, List<Cheque> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int[] line = {firstLine};
+        jdbcTemplate.batchUpdate(INSERT_SQL, batch, batchSize, (ps, cheque) -> {
+            ps.setLong(1, runId);
+            ps.setString(2, fileName);
+            ps.setInt(3, line[0]++);
+            ps.setLong(4, cheque.getCheque_number());
+            ps.setString(5, cheque.getRio());
+            ps.setShort(6, cheque.getOperation_type());
+            ps.setString(7, cheque.getBeneficiary_rib());
+            ps.setShort(8, cheque.getBeneficiary_bank());
+            ps.setString(9, cheque.getSender_rib());
+            ps.setShort(10, cheque.getSender_bank());
+            ps.setInt(11, cheque.getAmount());
+        });
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private void writeRejects() {
+        RejectReport report = new RejectReport();
+        try {
+            jdbcTemplate.query(REJECTS_SQL, rs -> {
+                report.write(rs.getString("file_name"), rs.getString("rio") + "." + rs.getInt("operation_type") + "."
+                        + rs.getString("beneficiary_rib") + "." + rs.getInt("beneficiary_bank") + "."
+                        + rs.getLong("cheque_number") + "." + rs.getString("sender_rib") + "."
+                        + rs.getInt("sender_bank") + "." + rs.getInt("amount"));
+            }, runId);
+        } finally {
+            report.close();
+        }
+        reported = true;
+    }
+
+    // Rejects arrive ordered by file, so only one report is open at a time
+    private class RejectReport {
+        private String fileName;
+        private BufferedWriter writer;
+
+        void write(String craFileName, String line) {
+            try {
+                if (!craFileName.equals(fileName)) {
+                    close();
+                    fileName = craFileName;
+                    writer = new BufferedWriter(new FileWriter(new File(rejectDirectory, craFileName + ".REJ")));
+                    writer.write(RemiseLineMapper.HEADER);
+                    writer.newLine();
+                }
+                writer.write(line);
+                writer.newLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write CRA reject report", e);
+            }
+        }
+
+        void close() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to write CRA reject report", e);
+                } finally {
+                    writer = null;
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package dz.eadn.thecloudbatch;
 
-import java.io.File;
-
 import javax.sql.DataSource;
 
 import org.springframework.batch.core.Job;
@@ -11,19 +9,13 @@ import org.springframework.batch.core.job.builder.JobBuilder;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.step.builder.StepBuilder;
 import org.springframework.batch.item.ItemProcessor;
-import org.springframework.batch.item.database.BeanPropertyItemSqlParameterSourceProvider;
-import org.springframework.batch.item.database.JdbcBatchItemWriter;
 import org.springframework.batch.item.database.JdbcCursorItemReader;
-import org.springframework.batch.item.database.builder.JdbcBatchItemWriterBuilder;
-import org.springframework.batch.item.file.FlatFileItemReader;
-import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
-import org.springframework.batch.item.file.mapping.BeanWrapperFieldSetMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 
 import dz.eadn.thecloudbatch.model.Cheque;
@@ -31,91 +23,120 @@ import dz.eadn.thecloudbatch.model.Cheque;
 @Configuration
 public class CraWriterJob {
 	
+	// craValidationStep: one partition per pending CRA file, named after it, scanned when the step starts
 	@Bean
 	@StepScope
-	public FlatFileItemReader<Cheque> craFileReader() {
-	    BeanWrapperFieldSetMapper<Cheque> fieldSetMapper = new BeanWrapperFieldSetMapper<>();
-	    fieldSetMapper.setTargetType(Cheque.class);
-	    fieldSetMapper.setDistanceLimit(2);
-	    
-	    // Find the first .CRA file in the output directory
-	    File outputDir = new File(System.getProperty("user.dir") + "/output");
-	    File[] craFiles = outputDir.listFiles((dir, name) -> name.endsWith(".CRA"));
-	    
-	    String craFilePath;
-	    if (craFiles != null && craFiles.length > 0) {
-	        craFilePath = craFiles[0].getAbsolutePath(); // Use the first CRA file found
-	    } else {
-	        throw new RuntimeException("No .CRA file found in output directory");
-	    }
-	    
-	    return new FlatFileItemReaderBuilder<Cheque>()
-	            .name("craFileReader")
-	            .resource(new FileSystemResource(craFilePath))  // Point to actual CRA file
-	            .linesToSkip(1)
-	            .delimited()
-	            .delimiter(".")
-	            .names("rio", "operation_type", "beneficiary_rib", "beneficiary_bank", "cheque_number", "sender_rib", "sender_bank", "amount")
-	            .fieldSetMapper(fieldSetMapper)
-	            .build();
+	public FilePartitioner craPartitioner(
+	        @Value("${batch.cra.input-dir:#{systemProperties['user.dir'] + '/output'}}") String craDirectory) {
+	    return new FilePartitioner(craDirectory, (dir, name) -> name.endsWith(".CRA"), "cra-");
 	}
 
+	// craValidationStep (one instance per CRA file)
 	@Bean
 	@StepScope
-	public ItemProcessor<Cheque, Cheque> craValidationProcessor(DataSource dataSource) {
-	    return new ItemProcessor<Cheque, Cheque>() {
-	        @Override
-	        public Cheque process(Cheque craItem) throws Exception {
-	            // Find matching cheque in database with "integrated" status
-	            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-	            
-	            String sql = """
-	                SELECT * FROM cheques 
-	                WHERE rio = ? AND operation_type = ? AND beneficiary_rib = ? 
-	                AND beneficiary_bank = ? AND cheque_number = ? AND sender_rib = ? 
-	                AND sender_bank = ? AND amount = ? AND status = 'integrated'
-	                """;
-	            
-	            try {
-	                Cheque dbCheque = jdbcTemplate.queryForObject(sql, 
-	                    new BeanPropertyRowMapper<>(Cheque.class),
-	                    craItem.getRio(), craItem.getOperation_type(), craItem.getBeneficiary_rib(),
-	                    craItem.getBeneficiary_bank(), craItem.getCheque_number(), craItem.getSender_rib(),
-	                    craItem.getSender_bank(), craItem.getAmount());
-	                
-	                // Return the database cheque (with ID) to update its status
-	                return dbCheque;
-	            } catch (EmptyResultDataAccessException e) {
-	                // No matching cheque found - skip this item
-	                return null;
-	            }
-	        }
-	    };
+	public MappedRemiseItemReader craFileReader(
+	        @Value("#{stepExecutionContext['fileName']}") Resource craFile) {
+	    MappedRemiseItemReader reader = new MappedRemiseItemReader();
+	    reader.setName("craFileReader");
+	    reader.setResource(craFile);
+	    reader.setLinesToSkip(1);
+	    reader.setLineMapper(new RemiseLineMapper());
+	    return reader;
 	}
 
+	// craValidationStep: one index per bank, shared by the CRA files of that bank
+	@Bean
+	public IntegratedChequeIndexCache integratedChequeIndexCache(DataSource dataSource) {
+	    return new IntegratedChequeIndexCache(dataSource);
+	}
+
+	// craValidationStep (one instance per CRA file)
 	@Bean
 	@StepScope
-	public JdbcBatchItemWriter<Cheque> processedStatusWriter(DataSource dataSource) {
-	    return new JdbcBatchItemWriterBuilder<Cheque>()
-	            .itemSqlParameterSourceProvider(new BeanPropertyItemSqlParameterSourceProvider<>())
-	            .sql("UPDATE cheques SET status = 'processed' WHERE id = :id")
-	            .dataSource(dataSource)
-	            .build();
+	public ItemProcessor<Cheque, Cheque> craValidationProcessor(
+	        IntegratedChequeIndexCache integratedChequeIndexCache,
+	        @Value("#{stepExecution.jobExecutionId}") Long jobExecutionId,
+	        @Value("#{stepExecutionContext['fileName']}") Resource craFile) {
+	    // A CRA file covers one beneficiary bank, the first part of its name
+	    String fileName = craFile.getFilename();
+	    int bank = Integer.parseInt(fileName.substring(0, fileName.indexOf('.')));
+	    IntegratedChequeIndex index = integratedChequeIndexCache.get(jobExecutionId, bank);
+
+	    // Keep CRA lines that match an integrated cheque, skip the others
+	    return craItem -> index.contains(craItem) ? craItem : null;
 	}
 
 	@Bean
-	public Step craValidationStep(
+	@StepScope
+	public ChequeStatusWriter processedStatusWriter(DataSource dataSource, ChequeStatusCounters chequeStatusCounters) {
+	    // cheque_number is unique; a repeated CRA line finds the row already processed
+	    ChequeStatusWriter writer = new ChequeStatusWriter(dataSource,
+	            ChequeStatusCounters.INTEGRATED, ChequeStatusCounters.PROCESSED, true);
+	    writer.setAssertUpdates(false);
+	    writer.setStatusCounters(chequeStatusCounters);
+	    return writer;
+	}
+
+	// craValidationStep (one instance per CRA file)
+	@Bean
+	@StepScope
+	public CraStagingReconciliationTasklet craStagingTasklet(
+	        DataSource dataSource,
+	        ChequeStatusCounters chequeStatusCounters,
+	        @Value("#{stepExecutionContext['fileName']}") Resource craFile,
+	        @Value("${batch.cra.input-dir:#{systemProperties['user.dir'] + '/output'}}") String craDirectory,
+	        @Value("${batch.cra.staging-batch-size:1000}") int batchSize) {
+	    CraStagingReconciliationTasklet tasklet = new CraStagingReconciliationTasklet(
+	            dataSource, new Resource[]{craFile}, craDirectory, batchSize);
+	    tasklet.setStatusCounters(chequeStatusCounters);
+	    return tasklet;
+	}
+
+	@Bean
+	public Step craValidationWorkerStep(
 	        JobRepository jobRepository,
 	        PlatformTransactionManager transactionManager,
-	        FlatFileItemReader<Cheque> craFileReader,
+	        MappedRemiseItemReader craFileReader,
 	        ItemProcessor<Cheque, Cheque> craValidationProcessor,
-	        JdbcBatchItemWriter<Cheque> processedStatusWriter
+	        ChequeStatusWriter processedStatusWriter,
+	        CraStagingReconciliationTasklet craStagingTasklet,
+	        @Value("${batch.cra.reconciliation-mode:memory}") String reconciliationMode,
+	        @Value("${batch.cra.archive-dir:#{systemProperties['user.dir'] + '/output/archive'}}") String archiveDirectory,
+	        Environment environment
 	) {
-	    return new StepBuilder("craValidationStep", jobRepository)
-	            .<Cheque, Cheque>chunk(10, transactionManager)
+	    CraArchivingListener archivingListener = new CraArchivingListener(archiveDirectory);
+	    if ("staging".equals(reconciliationMode)) {
+	        // Bulk-load the CRA lines in batches and reconcile them with a handful of set-based statements
+	        return new StepBuilder("craValidationWorkerStep", jobRepository)
+	                .tasklet(craStagingTasklet, transactionManager)
+	                .stream(craStagingTasklet)
+	                .listener(archivingListener)
+	                .build();
+	    }
+	    AdaptiveChunkPolicy chunkPolicy = AdaptiveChunkPolicy.forStep(environment, "craValidationWorkerStep");
+	    return new StepBuilder("craValidationWorkerStep", jobRepository)
+	            .<Cheque, Cheque>chunk(chunkPolicy, transactionManager)
 	            .reader(craFileReader)
 	            .processor(craValidationProcessor)
 	            .writer(processedStatusWriter)
+	            .listener(chunkPolicy)
+	            .listener(archivingListener)
+	            .build();
+	}
+
+	@Bean
+	public Step craValidationStep(
+	        JobRepository jobRepository,
+	        Step craValidationWorkerStep,
+	        FilePartitioner craPartitioner,
+	        TaskExecutor batchTaskExecutor,
+	        IntegratedChequeIndexCache integratedChequeIndexCache
+	) {
+	    return new StepBuilder("craValidationStep", jobRepository)
+	            .partitioner("craValidationWorkerStep", craPartitioner)
+	            .step(craValidationWorkerStep)
+	            .taskExecutor(batchTaskExecutor)
+	            .listener(integratedChequeIndexCache)
 	            .build();
 	}
 
@@ -133,14 +154,23 @@ public class CraWriterJob {
 
     @Bean
     @StepScope
-    public CustomItemWriter craFileWriter() {
-        return new CustomItemWriter(
+    public CustomItemWriter craFileWriter(LotNumberAllocator lotNumberAllocator,
+            JobArtifactRegistry jobArtifactRegistry,
+            @Value("${batch.output.async-flush:false}") boolean asyncFlush,
+            @Value("${batch.output.max-open-files:64}") int maxOpenFiles) {
+        CustomItemWriter writer = new CustomItemWriter(
             System.getProperty("user.dir") + "/output",  // Project root + /output
             "CRA",
             new String[]{"rio", "operation_type", "beneficiary_rib", "beneficiary_bank", "cheque_number", "sender_rib", "sender_bank", "amount"},
             "rio.operation_type.beneficiary_rib.beneficiary_bank.cheque_number.sender_rib.sender_bank.amount",
             "."
         );
+        writer.setName("craFileWriter");
+        writer.setAsyncFlush(asyncFlush);
+        writer.setMaxOpenFiles(maxOpenFiles);
+        writer.setLotNumberAllocator(lotNumberAllocator);
+        writer.setArtifactRegistry(jobArtifactRegistry);
+        return writer;
     }
 
 
@@ -151,13 +181,16 @@ public class CraWriterJob {
 			PlatformTransactionManager transactionManager,
 			JdbcCursorItemReader<Cheque> databaseChequeReader,
 			ItemProcessor<Cheque, Cheque> integratedProcessor,
-			CustomItemWriter craFileWriter
+			CustomItemWriter craFileWriter,
+			Environment environment
 	) {
+		AdaptiveChunkPolicy chunkPolicy = AdaptiveChunkPolicy.forStep(environment, "craWriter");
 		return new StepBuilder("craWriter", jobRepository)
-				.<Cheque, Cheque>chunk(10, transactionManager)
+				.<Cheque, Cheque>chunk(chunkPolicy, transactionManager)
 				.reader(databaseChequeReader)
 				.processor(integratedProcessor)
 				.writer(craFileWriter)
+				.listener(chunkPolicy)
 				.build();
 	}
     
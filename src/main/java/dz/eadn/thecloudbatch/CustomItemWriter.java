@@ -1,39 +1,103 @@
 package dz.eadn.thecloudbatch;
 
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
 import org.springframework.batch.item.Chunk;
 import org.springframework.batch.item.ExecutionContext;
 import org.springframework.batch.item.ItemStream;
 import org.springframework.batch.item.ItemStreamException;
 import org.springframework.batch.item.ItemWriter;
-import org.springframework.batch.item.file.FlatFileItemWriter;
-import org.springframework.batch.item.file.builder.FlatFileItemWriterBuilder;
-import org.springframework.batch.item.file.transform.BeanWrapperFieldExtractor;
-import org.springframework.batch.item.file.transform.DelimitedLineAggregator;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import dz.eadn.thecloudbatch.model.Cheque;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Writes cheques to one file per beneficiary bank / operation type group.
+ *
+ * Lines are formatted by {@link ChequeLineFormatter} into a per-group byte
+ * buffer and only reach the file, through a FileChannel, when the chunk
+ * transaction commits; a rollback discards them. By default the buffers are
+ * flushed in beforeCommit, so an I/O error rolls the chunk back. With
+ * asyncFlush they are handed to a background thread after the commit instead,
+ * and a failure there is reported by the next write() or close().
+ *
+ * At most maxOpenFiles channels are open at once: the least recently written
+ * one is closed to make room and reopened (without truncation) when its group
+ * gets lines again. Groups only hold a buffer while they have unwritten lines,
+ * so memory and file descriptors stay flat however many groups a run meets.
+ *
+ * Each chunk checkpoints every group's file name, lot number and committed
+ * size in the step ExecutionContext. A restarted step
+ * reopens those files, truncates them back to the last committed chunk and
+ * carries on appending, instead of regenerating everything. With asyncFlush a
+ * crash can leave a file shorter than its checkpoint; the restart then fails
+ * rather than silently losing lines, so keep the default for restartable runs.
+ *
+ * With a {@link JobArtifactRegistry} set, each file is registered against the
+ * running job once its first lines have committed.
+ *
+ * The writer does not write the ORD file: fileStep runs one writer per
+ * partition, and a run orders a single LOT file. {@link OrdFileTasklet} writes
+ * it once all partitions are done, from the files listed by
+ * {@link #checkpointedFiles}.
+ */
 @Component
 public class CustomItemWriter implements ItemWriter<Cheque>, ItemStream {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_OPEN_FILES = 64;
+
+    private static final String GROUPS_KEY = "groups";
+
+    /**
+     * A file of the writer's last checkpoint and its committed size.
+     */
+    public record CheckpointedFile(short bank, short operationType, int lotNumber, long size, String fileName) {
+    }
+
+    private String name = "customItemWriter";
     private final String outputDirectory;
     private final String fileExtension;
-    private final String[] fieldNames;
     private final String headerFormat;
-    private final String delimiter;
+    private final ChequeLineFormatter formatter;
 
-    private final Map<String, FlatFileItemWriter<Cheque>> writers = new HashMap<>();
+    private final Map<Integer, GroupFile> groups = new LinkedHashMap<>();
+    // Only used when no LotNumberAllocator is set (tools and tests without a database)
     private static final AtomicInteger globalLotSequence = new AtomicInteger(1);
-    private ExecutionContext executionContext;
-    
-    // For ORD file - only created if first file is LOT
-    private String ordInfo = null;
-    private boolean isFirstFileLot = false;
+    private LotNumberAllocator lotNumberAllocator;
+    private JobArtifactRegistry artifactRegistry;
+    // Job the files are registered against, taken from the step running open()
+    private String artifactJobId;
+
+    // Rows usually arrive grouped by bank/operation type, so most lookups hit this
+    private GroupFile lastGroup;
+    // Groups holding lines of the current, not yet committed, chunk
+    private final List<GroupFile> dirtyGroups = new ArrayList<>();
+    // Groups with an open channel, least recently written first. Its monitor guards
+    // it and every GroupFile channel, created flag and file: the flusher opens and
+    // evicts channels while the step thread forgets or truncates groups on rollback.
+    private final LinkedHashMap<Integer, GroupFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+    private boolean synchronizationRegistered = false;
+
+    private boolean asyncFlush = false;
+    private ExecutorService flusher;
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private volatile Throwable flushFailure;
 
     // Default constructor for LOT files
     public CustomItemWriter() {
@@ -47,29 +111,69 @@ public class CustomItemWriter implements ItemWriter<Cheque>, ItemStream {
     public CustomItemWriter(String outputDirectory, String fileExtension, String[] fieldNames, String headerFormat, String delimiter) {
         this.outputDirectory = outputDirectory;
         this.fileExtension = fileExtension;
-        this.fieldNames = fieldNames;
         this.headerFormat = headerFormat;
-        this.delimiter = delimiter;
+        this.formatter = new ChequeLineFormatter(fieldNames, delimiter);
+    }
+
+    /**
+     * Prefix of the ExecutionContext keys this writer saves its state under.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setAsyncFlush(boolean asyncFlush) {
+        this.asyncFlush = asyncFlush;
+    }
+
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+    }
+
+    public void setLotNumberAllocator(LotNumberAllocator lotNumberAllocator) {
+        this.lotNumberAllocator = lotNumberAllocator;
+    }
+
+    public void setArtifactRegistry(JobArtifactRegistry artifactRegistry) {
+        this.artifactRegistry = artifactRegistry;
     }
 
     @Override
     public void write(Chunk<? extends Cheque> chunk) throws Exception {
-        Map<String, List<Cheque>> groups = new HashMap<>();
-        
+        rethrowFlushFailure();
+
         for (Cheque cheque : chunk) {
-            String key = cheque.getBeneficiary_bank() + "_" + cheque.getOperation_type();
-            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(cheque);
+            GroupFile group = getOrCreateGroup(cheque);
+            if (group.pending == null) {
+                group.pending = buffer();
+            }
+            group.pending = formatter.append(group.pending, cheque);
+            if (!group.dirty) {
+                group.dirty = true;
+                dirtyGroups.add(group);
+            }
         }
 
-        for (Map.Entry<String, List<Cheque>> entry : groups.entrySet()) {
-            FlatFileItemWriter<Cheque> writer = getOrCreateWriter(entry.getKey(), entry.getValue().get(0));
-            writer.write(new Chunk<>(entry.getValue()));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            List<PendingWrite> writes = takeDirtyBuffers();
+            flush(writes);
+            committed(writes);
+        } else if (!synchronizationRegistered) {
+            TransactionSynchronizationManager.registerSynchronization(new FlushOnCommit());
+            synchronizationRegistered = true;
         }
     }
 
-    private FlatFileItemWriter<Cheque> getOrCreateWriter(String key, Cheque sample) {
-        if (!writers.containsKey(key)) {
-            int lotNumber = globalLotSequence.getAndUpdate(current -> current >= 999 ? 1 : current + 1);
+    private GroupFile getOrCreateGroup(Cheque sample) {
+        int key = (sample.getBeneficiary_bank() << 16) | (sample.getOperation_type() & 0xFFFF);
+        if (lastGroup != null && lastGroup.key == key) {
+            return lastGroup;
+        }
+        GroupFile group = groups.get(key);
+        if (group == null) {
+            int lotNumber = lotNumberAllocator != null
+                    ? lotNumberAllocator.nextLotNumber(fileExtension)
+                    : globalLotSequence.getAndUpdate(current -> current >= 999 ? 1 : current + 1);
 
             String filename = new FileNameBuilder()
                     .addBeneficiaryBank(sample.getBeneficiary_bank())
@@ -79,79 +183,399 @@ public class CustomItemWriter implements ItemWriter<Cheque>, ItemStream {
                     .extension(fileExtension)
                     .build();
 
-            // Check if this is the first file and if it's a LOT file
-            if (writers.isEmpty() && "LOT".equals(fileExtension)) {
-                isFirstFileLot = true;
-                ordInfo = sample.getBeneficiary_bank() + "|" + lotNumber + "|" + sample.getOperation_type();
-            }
-
-            DelimitedLineAggregator<Cheque> aggregator = new DelimitedLineAggregator<>();
-            aggregator.setDelimiter(delimiter);
-            
-            BeanWrapperFieldExtractor<Cheque> extractor = new BeanWrapperFieldExtractor<>();
-            extractor.setNames(fieldNames);
-            aggregator.setFieldExtractor(extractor);
-
-            FlatFileItemWriter<Cheque> writer = new FlatFileItemWriterBuilder<Cheque>()
-                    .name("writer_" + key)
-                    .resource(new FileSystemResource(outputDirectory + "/" + filename))
-                    .lineAggregator(aggregator)
-                    .headerCallback(w -> w.write(headerFormat))
-                    .shouldDeleteIfExists(true)
-                    .build();
+            group = new GroupFile(key, Path.of(outputDirectory, filename), lotNumber,
+                    sample.getBeneficiary_bank(), sample.getOperation_type());
+            group.pending = formatter.appendLine(buffer(), headerFormat);
+            groups.put(key, group);
+        }
+        lastGroup = group;
+        return group;
+    }
+
+    /**
+     * Detaches the pending lines of the current chunk from their groups; the next
+     * chunk takes a fresh buffer from the pool for the groups it touches.
+     */
+    private List<PendingWrite> takeDirtyBuffers() {
+        List<PendingWrite> writes = new ArrayList<>(dirtyGroups.size());
+        for (GroupFile group : dirtyGroups) {
+            writes.add(new PendingWrite(group, group.pending, group.pending.position()));
+            group.pending = null;
+            group.dirty = false;
+        }
+        dirtyGroups.clear();
+        return writes;
+    }
 
+    private void committed(List<PendingWrite> writes) {
+        for (PendingWrite write : writes) {
+            if (!write.group.committed) {
+                write.group.committed = true;
+                registerArtifact(fileExtension, write.group.path);
+            }
+            write.group.committedSize += write.size;
+        }
+    }
+
+    private void registerArtifact(String type, Path file) {
+        if (artifactRegistry != null && artifactJobId != null) {
+            artifactRegistry.registerArtifact(artifactJobId, type, file.getFileName().toString());
+        }
+    }
+
+    private void discardDirtyBuffers() {
+        for (GroupFile group : dirtyGroups) {
+            group.dirty = false;
+            release(group.pending);
+            group.pending = null;
+            if (!group.committed) {
+                forget(group);
+            }
+        }
+        dirtyGroups.clear();
+        lastGroup = null;
+    }
+
+    /**
+     * Drops a group none of whose lines were committed, so that it is created
+     * again (new lot number, header included) if its rows come back.
+     */
+    private void forget(GroupFile group) {
+        groups.remove(group.key);
+        synchronized (openFiles) {
             try {
-                writer.afterPropertiesSet();
-                if (executionContext != null) writer.open(executionContext);
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to create writer", e);
+                if (group.channel != null) {
+                    openFiles.remove(group.key);
+                    group.channel.close();
+                    group.channel = null;
+                }
+                if (group.created) {
+                    Files.deleteIfExists(group.path);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to remove " + group.path + ": " + e.getMessage());
             }
+        }
+    }
+
+    /**
+     * Writes the buffers to their files. If one write fails, the files already
+     * written by this call are truncated back so none of the chunk stays on disk.
+     */
+    private void flush(List<PendingWrite> writes) throws IOException {
+        synchronized (openFiles) {
+            writeAll(writes);
+        }
+    }
+
+    private void writeAll(List<PendingWrite> writes) throws IOException {
+        try {
+            for (PendingWrite write : writes) {
+                GroupFile group = write.group;
+                FileChannel channel = channel(group);
+                ByteBuffer buffer = write.buffer.flip();
+                long position = group.written;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            for (PendingWrite write : writes) {
+                write.group.written += write.buffer.limit();
+            }
+        } catch (IOException e) {
+            for (PendingWrite write : writes) {
+                if (write.group.created) {
+                    truncate(write.group, write.group.written);
+                }
+            }
+            throw e;
+        } finally {
+            for (PendingWrite write : writes) {
+                release(write.buffer);
+            }
+        }
+    }
 
-            writers.put(key, writer);
+    /**
+     * Returns the group's channel, opening it if needed and closing the least
+     * recently written one when maxOpenFiles are already open. The file is
+     * truncated on first open only; later opens continue at {@code written}.
+     * Called with the openFiles monitor held.
+     */
+    private FileChannel channel(GroupFile group) throws IOException {
+        if (group.channel != null) {
+            openFiles.get(group.key);
+            return group.channel;
+        }
+        if (openFiles.size() >= maxOpenFiles) {
+            Iterator<GroupFile> eldest = openFiles.values().iterator();
+            GroupFile evicted = eldest.next();
+            eldest.remove();
+            evicted.channel.close();
+            evicted.channel = null;
         }
-        return writers.get(key);
+        if (group.created) {
+            group.channel = FileChannel.open(group.path, StandardOpenOption.WRITE);
+        } else {
+            Files.createDirectories(group.path.getParent());
+            group.channel = FileChannel.open(group.path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            group.created = true;
+        }
+        openFiles.put(group.key, group);
+        return group.channel;
     }
 
-    private void writeOrdFile() {
-        // Only write ORD file if first file was LOT
-        if (!isFirstFileLot || ordInfo == null) return;
+    private void truncate(GroupFile group, long size) throws IOException {
+        synchronized (openFiles) {
+            channel(group).truncate(size);
+            group.written = size;
+        }
+    }
 
-        String[] parts = ordInfo.split("\\|");
-        String ordFilename = new FileNameBuilder()
-                .addPart(parts[0])
-                .addLotNumber(Integer.parseInt(parts[1]))
-                .addTimestamp()
-                .extension("ORD")
-                .build();
+    private void submitFlush(List<PendingWrite> writes) {
+        flusher.execute(() -> {
+            if (flushFailure != null) {
+                return;
+            }
+            try {
+                flush(writes);
+            } catch (Throwable e) {
+                flushFailure = e;
+            }
+        });
+    }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputDirectory + "/" + ordFilename))) {
-            writer.write("command_type.lot_number.operation_type");
-            writer.newLine();
-            writer.write("INLOT." + String.format("%03d", Integer.parseInt(parts[1])) + "." + String.format("%03d", Integer.parseInt(parts[2])));
-            writer.newLine();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to write ORD file", e);
+    private void rethrowFlushFailure() {
+        if (flushFailure != null) {
+            throw new ItemStreamException("Background flush of " + fileExtension + " files failed", flushFailure);
         }
     }
 
+    private ByteBuffer buffer() {
+        ByteBuffer buffer = freeBuffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffer.clear();
+        freeBuffers.offer(buffer);
+    }
+
     @Override
     public void open(ExecutionContext executionContext) throws ItemStreamException {
-        this.executionContext = executionContext;
-        writers.values().forEach(w -> w.open(executionContext));
+        flushFailure = null;
+        StepContext stepContext = StepSynchronizationManager.getContext();
+        artifactJobId = stepContext != null
+                ? String.valueOf(stepContext.getStepExecution().getJobExecution().getJobId()) : null;
+        if (asyncFlush) {
+            flusher = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "flush-" + fileExtension);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (executionContext.containsKey(key(GROUPS_KEY))) {
+            restore(executionContext);
+        }
     }
 
     @Override
     public void update(ExecutionContext executionContext) throws ItemStreamException {
-        writers.values().forEach(w -> w.update(executionContext));
+        // Called inside the chunk transaction, before the flush: the checkpoint
+        // covers the lines of the chunk about to commit
+        StringBuilder state = new StringBuilder();
+        for (GroupFile group : groups.values()) {
+            long size = group.committedSize + (group.pending != null ? group.pending.position() : 0);
+            if (size == 0) {
+                continue;
+            }
+            if (!state.isEmpty()) {
+                state.append(';');
+            }
+            state.append(group.bank).append(',').append(group.operationType).append(',')
+                    .append(group.lotNumber).append(',').append(size).append(',')
+                    .append(group.path.getFileName());
+        }
+        executionContext.putString(key(GROUPS_KEY), state.toString());
+    }
+
+    /**
+     * The files in the last checkpoint of the writer named name, as saved in
+     * a step ExecutionContext; empty if it has none.
+     */
+    public static List<CheckpointedFile> checkpointedFiles(ExecutionContext executionContext, String name) {
+        String state = executionContext.getString(name + "." + GROUPS_KEY, "");
+        List<CheckpointedFile> files = new ArrayList<>();
+        for (String entry : state.isEmpty() ? new String[0] : state.split(";")) {
+            String[] fields = entry.split(",", 5);
+            files.add(new CheckpointedFile(Short.parseShort(fields[0]), Short.parseShort(fields[1]),
+                    Integer.parseInt(fields[2]), Long.parseLong(fields[3]), fields[4]));
+        }
+        return files;
+    }
+
+    /**
+     * Reopens the files of a previous execution and truncates each one to its
+     * checkpointed size, dropping whatever an uncommitted chunk left behind.
+     */
+    private void restore(ExecutionContext executionContext) {
+        try {
+            for (CheckpointedFile file : checkpointedFiles(executionContext, name)) {
+                int key = (file.bank() << 16) | (file.operationType() & 0xFFFF);
+                GroupFile group = new GroupFile(key, Path.of(outputDirectory, file.fileName()),
+                        file.lotNumber(), file.bank(), file.operationType());
+                if (!Files.exists(group.path) || Files.size(group.path) < file.size()) {
+                    throw new ItemStreamException("Cannot restart: " + group.path + " is missing or shorter than its "
+                            + file.size() + " checkpointed bytes");
+                }
+                group.created = true;
+                group.committed = true;
+                group.committedSize = file.size();
+                truncate(group, file.size());
+                groups.put(key, group);
+                registerArtifact(fileExtension, group.path);
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to reopen " + fileExtension + " files", e);
+        }
+        System.out.println("Restarted " + name + " with " + groups.size() + " " + fileExtension + " files");
+    }
+
+    private String key(String suffix) {
+        return name + "." + suffix;
     }
 
     @Override
     public void close() throws ItemStreamException {
-        writers.values().forEach(FlatFileItemWriter::close);
-        writeOrdFile(); // Only writes if first file was LOT
-        writers.clear();
-        ordInfo = null;
-        isFirstFileLot = false;
-        executionContext = null;
+        try {
+            if (flusher != null) {
+                flusher.shutdown();
+                flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                flusher = null;
+            }
+            synchronized (openFiles) {
+                for (GroupFile group : openFiles.values()) {
+                    group.channel.close();
+                    group.channel = null;
+                }
+                openFiles.clear();
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to close " + fileExtension + " files", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ItemStreamException("Interrupted while flushing " + fileExtension + " files", e);
+        }
+        rethrowFlushFailure();
+        groups.clear();
+        dirtyGroups.clear();
+        freeBuffers.clear();
+        lastGroup = null;
+        artifactJobId = null;
+    }
+
+    private class FlushOnCommit implements TransactionSynchronization {
+
+        // Lines of this transaction once beforeCommit has taken them
+        private List<PendingWrite> writes;
+        private boolean flushed;
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            writes = takeDirtyBuffers();
+            if (!asyncFlush) {
+                for (PendingWrite write : writes) {
+                    write.start = write.group.written;
+                }
+                try {
+                    flushed = true;
+                    flush(writes);
+                } catch (IOException e) {
+                    throw new ItemStreamException("Failed to write " + fileExtension + " files", e);
+                }
+            }
+        }
+
+        @Override
+        public void afterCommit() {
+            committed(writes);
+            if (asyncFlush) {
+                submitFlush(writes);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            synchronizationRegistered = false;
+            if (status == STATUS_COMMITTED) {
+                return;
+            }
+            if (writes == null) {
+                discardDirtyBuffers();
+                return;
+            }
+            // The commit failed after beforeCommit: take this chunk's lines back out of the files
+            for (PendingWrite write : writes) {
+                GroupFile group = write.group;
+                if (!flushed) {
+                    release(write.buffer);
+                } else if (group.created && group.written > write.start) {
+                    try {
+                        truncate(group, write.start);
+                    } catch (IOException e) {
+                        System.err.println("Failed to roll back " + group.path + ": " + e.getMessage());
+                    }
+                }
+                if (!group.committed) {
+                    forget(group);
+                }
+            }
+            lastGroup = null;
+        }
+    }
+
+    // One output file and the lines waiting to be written to it
+    private static final class GroupFile {
+        final int key;
+        final Path path;
+        final int lotNumber;
+        final short bank;
+        final short operationType;
+        // Unwritten lines, null while there are none
+        ByteBuffer pending;
+        boolean dirty;
+        // Set on the step thread once a chunk with lines for this group has committed
+        boolean committed;
+        // The file exists (created and truncated by the first flush); reopen it without truncation
+        boolean created;
+        // Open, or null when closed by the LRU
+        FileChannel channel;
+        // Bytes in the file
+        long written;
+        // Bytes of committed chunks, as seen by the step thread (the flusher may still be behind)
+        long committedSize;
+
+        GroupFile(int key, Path path, int lotNumber, short bank, short operationType) {
+            this.key = key;
+            this.path = path;
+            this.lotNumber = lotNumber;
+            this.bank = bank;
+            this.operationType = operationType;
+        }
+    }
+
+    private static final class PendingWrite {
+        final GroupFile group;
+        final ByteBuffer buffer;
+        final int size;
+        // File size before this write, to undo it if the transaction rolls back
+        long start;
+
+        PendingWrite(GroupFile group, ByteBuffer buffer, int size) {
+            this.group = group;
+            this.buffer = buffer;
+            this.size = size;
+        }
     }
 }
@@ -1,29 +1,78 @@
 package dz.eadn.thecloudbatch;
 
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobInstance;
 import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.scope.context.ChunkContext;
 import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.repeat.RepeatStatus;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Set;
 
 public class FileMarkingTasklet implements Tasklet {
     
     private final String remisesDir;
+    private final String remiseFiles;
+    private JobRepository jobRepository;
+    private String partitionStepPrefix;
     
     public FileMarkingTasklet(String remisesDir) {
+        this(remisesDir, null);
+    }
+
+    /**
+     * @param remiseFiles comma-separated names of the remise files of this run, or
+     *                    null to mark every pending remise in the directory
+     */
+    public FileMarkingTasklet(String remisesDir, String remiseFiles) {
         this.remisesDir = remisesDir;
+        this.remiseFiles = remiseFiles;
+    }
+
+    /**
+     * Only marks the files whose partition, named partitionStepPrefix + file
+     * name, completed in this job instance (this execution or, for a restart,
+     * an earlier one). A file that appeared after the partitions were created
+     * stays pending for the next run instead of being marked unread.
+     */
+    public void setIngestedBy(JobRepository jobRepository, String partitionStepPrefix) {
+        this.jobRepository = jobRepository;
+        this.partitionStepPrefix = partitionStepPrefix;
+    }
+
+    /**
+     * Pending remise files, restricted to the given comma-separated names when
+     * there are any (runs launched by the intake flow only own the files they were
+     * started for; files still arriving in the directory are left alone).
+     */
+    public static FilenameFilter remiseFilter(String remiseFiles) {
+        Set<String> names = remiseFiles == null || remiseFiles.isBlank()
+                ? null : Set.of(remiseFiles.split(","));
+        return (d, name) -> name.endsWith(".remise") && !name.endsWith(".remise.DONE")
+                && (names == null || names.contains(name));
     }
     
     @Override
     public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
         File dir = new File(remisesDir);
-        File[] files = dir.listFiles((d, name) -> name.endsWith(".remise") && !name.endsWith(".remise.DONE"));
+        File[] files = dir.listFiles(remiseFilter(remiseFiles));
+        JobInstance jobInstance = chunkContext.getStepContext().getStepExecution().getJobExecution().getJobInstance();
         
         if (files != null) {
             for (File file : files) {
+                if (jobRepository != null) {
+                    StepExecution ingested = jobRepository.getLastStepExecution(jobInstance, partitionStepPrefix + file.getName());
+                    if (ingested == null || ingested.getStatus() != BatchStatus.COMPLETED) {
+                        System.out.println("Left pending, not ingested by this run: " + file.getName());
+                        continue;
+                    }
+                }
                 String newFileName = file.getName() + ".DONE";
                 File newFile = new File(file.getParent(), newFileName);
                 
@@ -36,4 +85,4 @@ public class FileMarkingTasklet implements Tasklet {
         
         return RepeatStatus.FINISHED;
     }
-}
\ No newline at end of file
+}
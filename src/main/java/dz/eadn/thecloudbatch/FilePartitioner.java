@@ -0,0 +1,59 @@
+package dz.eadn.thecloudbatch;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * One partition per file of a directory accepted by the filter, named after
+ * the file (&lt;worker step&gt;:&lt;prefix&gt;&lt;file name&gt;) rather than by
+ * position as MultiResourcePartitioner does.
+ *
+ * On a restart Spring Batch matches partitions to the previous execution by
+ * name, and the listing is not in a fixed order and changes as files are
+ * archived, marked or uploaded. With positional names a failed file could
+ * inherit the name, and the COMPLETED status, of another file and never be
+ * run. Named by file, a failed partition restarts from its own context,
+ * completed ones stay skipped, and a file that arrived in between gets a
+ * partition of its own.
+ *
+ * Each partition context carries {@code fileName}, the URL of its file, as
+ * with MultiResourcePartitioner.
+ */
+public class FilePartitioner implements Partitioner {
+
+    private final File directory;
+    private final FilenameFilter filter;
+    private final String prefix;
+
+    public FilePartitioner(String directory, FilenameFilter filter, String prefix) {
+        this.directory = new File(directory);
+        this.filter = filter;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        File[] files = directory.listFiles(filter);
+        if (files == null) {
+            return partitions;
+        }
+        for (File file : files) {
+            ExecutionContext context = new ExecutionContext();
+            try {
+                context.putString("fileName", new FileSystemResource(file).getURL().toExternalForm());
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot get the URL of " + file, e);
+            }
+            partitions.put(prefix + file.getName(), context);
+        }
+        return partitions;
+    }
+}
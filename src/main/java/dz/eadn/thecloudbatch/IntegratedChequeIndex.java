@@ -0,0 +1,165 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Read-only index of the 'integrated' cheques of a set of beneficiary banks,
+ * used to reconcile CRA lines in memory instead of querying the database once
+ * per line.
+ *
+ * cheque_number is unique, so it is the hash key. The seven other columns of
+ * the reconciliation key are folded into a 64-bit fingerprint stored next to
+ * it. Both live in two primitive long arrays (open addressing, linear probing),
+ * which is about 27 bytes per cheque at the maximum load factor and creates no
+ * object per entry.
+ *
+ * Once loaded the index is never modified, so it can be read from several
+ * threads without locking.
+ */
+public class IntegratedChequeIndex {
+
+    private static final String LOAD_SQL = """
+            SELECT rio, operation_type, beneficiary_rib, beneficiary_bank,
+                   cheque_number, sender_rib, sender_bank, amount
+            FROM cheques
+            WHERE status = 'integrated' AND beneficiary_bank IN (%s)
+            """;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double MAX_LOAD = 0.6;
+    private static final int FETCH_SIZE = 10_000;
+
+    private long[] keys;
+    private long[] fingerprints;
+    private int size;
+
+    private IntegratedChequeIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit((int) Math.max(16, expectedSize / MAX_LOAD) - 1) << 1;
+        keys = new long[capacity];
+        fingerprints = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public static IntegratedChequeIndex load(DataSource dataSource, Collection<Integer> banks) {
+        IntegratedChequeIndex index = new IntegratedChequeIndex(1024);
+        if (banks.isEmpty()) {
+            return index;
+        }
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(FETCH_SIZE);
+        String placeholders = String.join(", ", Collections.nCopies(banks.size(), "?"));
+        jdbcTemplate.query(String.format(LOAD_SQL, placeholders), rs -> {
+            index.put(rs.getLong("cheque_number"), fingerprint(
+                    rs.getString("rio"), rs.getInt("operation_type"), rs.getString("beneficiary_rib"),
+                    rs.getInt("beneficiary_bank"), rs.getString("sender_rib"), rs.getInt("sender_bank"),
+                    rs.getInt("amount")));
+        }, banks.toArray());
+        return index;
+    }
+
+    // Index of the given cheques without a database, growing from the smallest capacity
+    static IntegratedChequeIndex of(Collection<Cheque> cheques) {
+        IntegratedChequeIndex index = new IntegratedChequeIndex(0);
+        for (Cheque cheque : cheques) {
+            index.put(cheque.getCheque_number(), fingerprint(
+                    cheque.getRio(), cheque.getOperation_type(), cheque.getBeneficiary_rib(),
+                    cheque.getBeneficiary_bank(), cheque.getSender_rib(), cheque.getSender_bank(),
+                    cheque.getAmount()));
+        }
+        return index;
+    }
+
+    /**
+     * True when an integrated cheque matches the CRA line on all eight columns.
+     */
+    public boolean contains(Cheque cheque) {
+        int slot = slot(cheque.getCheque_number());
+        if (keys[slot] == EMPTY) {
+            return false;
+        }
+        return fingerprints[slot] == fingerprint(
+                cheque.getRio(), cheque.getOperation_type(), cheque.getBeneficiary_rib(),
+                cheque.getBeneficiary_bank(), cheque.getSender_rib(), cheque.getSender_bank(),
+                cheque.getAmount());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    private void put(long chequeNumber, long fingerprint) {
+        if (size + 1 > keys.length * MAX_LOAD) {
+            grow();
+        }
+        int slot = slot(chequeNumber);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = chequeNumber;
+            size++;
+        }
+        fingerprints[slot] = fingerprint;
+    }
+
+    /** Slot holding the key, or the empty slot where it would go. */
+    private int slot(long chequeNumber) {
+        int mask = keys.length - 1;
+        int slot = (int) mix(chequeNumber) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != chequeNumber) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldFingerprints = fingerprints;
+        keys = new long[oldKeys.length * 2];
+        fingerprints = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldFingerprints[i]);
+            }
+        }
+    }
+
+    static long fingerprint(String rio, int operationType, String beneficiaryRib, int beneficiaryBank,
+                            String senderRib, int senderBank, int amount) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, rio);
+        h = mix(h ^ operationType);
+        h = hash(h, beneficiaryRib);
+        h = mix(h ^ beneficiaryBank);
+        h = hash(h, senderRib);
+        h = mix(h ^ senderBank);
+        return mix(h ^ amount);
+    }
+
+    // FNV-1a over the characters of the value, a null counting as an empty string
+    private static long hash(long h, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                h = (h ^ value.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return mix(h ^ 0x1f);
+    }
+
+    // Final mixer of SplitMix64
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
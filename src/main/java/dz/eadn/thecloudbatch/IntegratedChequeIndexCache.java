@@ -0,0 +1,68 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+
+/**
+ * Shares the {@link IntegratedChequeIndex} of a bank between the CRA files of
+ * that bank reconciled by one craValidationStep execution: the first partition
+ * of a bank loads it, the others, running at the same time or later, wait for
+ * it and reuse it.
+ *
+ * Registered as a listener of the manager step, which drops the indexes of its
+ * job execution when it ends. The indexes are not refreshed meanwhile: a CRA
+ * line of a cheque another file already processed still matches, and its
+ * status update then finds no 'integrated' row, as a repeated line does.
+ */
+public class IntegratedChequeIndexCache implements StepExecutionListener {
+
+    private final IntFunction<IntegratedChequeIndex> loader;
+    private final Map<Long, Map<Integer, CompletableFuture<IntegratedChequeIndex>>> indexes = new ConcurrentHashMap<>();
+
+    public IntegratedChequeIndexCache(DataSource dataSource) {
+        this(bank -> IntegratedChequeIndex.load(dataSource, List.of(bank)));
+    }
+
+    IntegratedChequeIndexCache(IntFunction<IntegratedChequeIndex> loader) {
+        this.loader = loader;
+    }
+
+    public IntegratedChequeIndex get(long jobExecutionId, int bank) {
+        Map<Integer, CompletableFuture<IntegratedChequeIndex>> banks =
+                indexes.computeIfAbsent(jobExecutionId, id -> new ConcurrentHashMap<>());
+        CompletableFuture<IntegratedChequeIndex> loading = new CompletableFuture<>();
+        CompletableFuture<IntegratedChequeIndex> existing = banks.putIfAbsent(bank, loading);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            IntegratedChequeIndex index = loader.apply(bank);
+            loading.complete(index);
+            return index;
+        } catch (RuntimeException e) {
+            // Let the next partition of the bank try again
+            banks.remove(bank, loading);
+            loading.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        indexes.remove(stepExecution.getJobExecutionId());
+        return null;
+    }
+}
@@ -0,0 +1,88 @@
+package dz.eadn.thecloudbatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory record of the jobs launched by this instance: a snapshot of each
+ * step as it starts and finishes, and the files the writers produced for the
+ * job, by type (LOT, ORD, CRA...). Status queries read it instead of the job
+ * repository and the output directory, so they only see the files of their
+ * own run and cost the same however many files output/ holds.
+ *
+ * Keyed by job instance id (the jobId of the REST API); only the most recent
+ * MAX_TRACKED_JOBS jobs are kept.
+ */
+@Component
+public class JobArtifactRegistry {
+
+    private static final int MAX_TRACKED_JOBS = 500;
+
+    public record StepSnapshot(String status, long readCount, long writeCount, String error) {
+    }
+
+    private final Map<String, Execution> executions = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Execution> eldest) {
+            return size() > MAX_TRACKED_JOBS;
+        }
+    };
+
+    public void registerArtifact(String jobId, String type, String fileName) {
+        Execution execution = execution(jobId);
+        synchronized (execution) {
+            execution.artifacts.computeIfAbsent(type, t -> new LinkedHashSet<>()).add(fileName);
+        }
+    }
+
+    public List<String> artifacts(String jobId, String type) {
+        Execution execution = find(jobId);
+        if (execution == null) {
+            return List.of();
+        }
+        synchronized (execution) {
+            Set<String> files = execution.artifacts.get(type);
+            return files != null ? new ArrayList<>(files) : List.of();
+        }
+    }
+
+    public void recordStep(String jobId, String stepName, StepSnapshot snapshot) {
+        execution(jobId).steps.put(stepName, snapshot);
+    }
+
+    public StepSnapshot step(String jobId, String stepName) {
+        Execution execution = find(jobId);
+        return execution != null ? execution.steps.get(stepName) : null;
+    }
+
+    public Map<String, StepSnapshot> steps(String jobId) {
+        Execution execution = find(jobId);
+        return execution != null ? Collections.unmodifiableMap(execution.steps) : Map.of();
+    }
+
+    private Execution find(String jobId) {
+        synchronized (executions) {
+            return executions.get(jobId);
+        }
+    }
+
+    private Execution execution(String jobId) {
+        synchronized (executions) {
+            return executions.computeIfAbsent(jobId, id -> new Execution());
+        }
+    }
+
+    private static final class Execution {
+        final Map<String, StepSnapshot> steps = new ConcurrentHashMap<>();
+        // Guarded by the Execution
+        final Map<String, Set<String>> artifacts = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,141 @@
+package dz.eadn.thecloudbatch;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Launches jobs in the background so that the caller (an HTTP request, the
+ * intake flow) gets the new JobExecution back at once.
+ *
+ * Each job gets its own pool: batch.launch.&lt;jobName&gt;.concurrency runs at a
+ * time (default 1), with up to batch.launch.&lt;jobName&gt;.queue-capacity more
+ * waiting (default 10). A launch that does not fit is not queued: launch throws
+ * a {@link QueueFullException} carrying the execution, which the repository
+ * records as FAILED. A returned execution was queued, whatever its status by
+ * the time the caller looks at it.
+ * batch.launch.virtual-threads runs the jobs on virtual threads.
+ *
+ * An optional callback gets the JobExecution, step executions included, once
+ * the job has finished, on the thread that ran it.
+ */
+@Component
+public class JobLaunchService implements DisposableBean {
+
+    private final JobRepository jobRepository;
+    private final Environment environment;
+
+    private final Map<String, ThreadPoolTaskExecutor> executors = new ConcurrentHashMap<>();
+
+    public JobLaunchService(JobRepository jobRepository, Environment environment) {
+        this.jobRepository = jobRepository;
+        this.environment = environment;
+    }
+
+    /**
+     * Thrown when the pool of the job has no room left for the launch.
+     */
+    public static class QueueFullException extends Exception {
+
+        private final JobExecution execution;
+
+        QueueFullException(JobExecution execution, TaskRejectedException cause) {
+            super(execution.getJobInstance().getJobName() + " queue is full", cause);
+            this.execution = execution;
+        }
+
+        public JobExecution getExecution() {
+            return execution;
+        }
+    }
+
+    public JobExecution launch(Job job, JobParameters jobParameters) throws Exception {
+        return launch(job, jobParameters, null);
+    }
+
+    public JobExecution launch(Job job, JobParameters jobParameters, Consumer<JobExecution> onCompletion) throws Exception {
+        ThreadPoolTaskExecutor executor = executors.computeIfAbsent(job.getName(), this::createExecutor);
+        CompletableFuture<JobExecution> launched = new CompletableFuture<>();
+        AtomicReference<TaskRejectedException> rejected = new AtomicReference<>();
+        // The launcher hands the executor a task that runs the job; the callback runs right after it.
+        // The launcher swallows a rejection into a FAILED execution, so it is recorded here on its way out
+        TaskExecutorJobLauncher launcher = createLauncher(task -> {
+            try {
+                executor.execute(onCompletion == null ? task : () -> {
+                    try {
+                        task.run();
+                    } finally {
+                        try {
+                            onCompletion.accept(launched.join());
+                        } catch (RuntimeException e) {
+                            System.err.println("Completion callback of " + job.getName() + " failed: " + e.getMessage());
+                        }
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                rejected.set(e);
+                throw e;
+            }
+        });
+        JobExecution execution;
+        try {
+            execution = launcher.run(job, jobParameters);
+        } catch (Exception e) {
+            launched.completeExceptionally(e);
+            throw e;
+        }
+        launched.complete(execution);
+        if (rejected.get() != null) {
+            System.err.println("Rejected " + job.getName() + " execution " + execution.getId() + ": queue full");
+            throw new QueueFullException(execution, rejected.get());
+        }
+        System.out.println("Launched " + job.getName() + " execution " + execution.getId() + ": " + execution.getStatus());
+        return execution;
+    }
+
+    private ThreadPoolTaskExecutor createExecutor(String jobName) {
+        String prefix = "batch.launch." + jobName + ".";
+        int concurrency = environment.getProperty(prefix + "concurrency", Integer.class, 1);
+        int queueCapacity = environment.getProperty(prefix + "queue-capacity", Integer.class, 10);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(jobName + "-");
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setVirtualThreads(environment.getProperty("batch.launch.virtual-threads", Boolean.class, false));
+        executor.initialize();
+        return executor;
+    }
+
+    private TaskExecutorJobLauncher createLauncher(TaskExecutor executor) {
+        try {
+            TaskExecutorJobLauncher launcher = new TaskExecutorJobLauncher();
+            launcher.setJobRepository(jobRepository);
+            launcher.setTaskExecutor(executor);
+            launcher.afterPropertiesSet();
+            return launcher;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create job launcher", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executors.values().forEach(ThreadPoolTaskExecutor::shutdown);
+    }
+}
@@ -0,0 +1,185 @@
+package dz.eadn.thecloudbatch;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Keeps the latest progress of each job in memory and pushes it to the
+ * browsers subscribed to it as Server-Sent Events ("progress" events).
+ *
+ * The state has the same fields as /api/job/status (dbStepStatus,
+ * fileStepDetails, uapStatus...) plus live per-step read/write counts, and is
+ * fed by {@link JobProgressListener} and the UAP watcher callbacks, so
+ * watching a job costs no job repository query. A new subscriber first gets
+ * the current state. Chunk-level updates are sent at most every
+ * MIN_CHUNK_INTERVAL_MS per job; step and UAP transitions are always sent.
+ *
+ * The batch threads only change the state under the job's lock. The events go
+ * out on the progress-sse- threads: at most one send task per job is pending,
+ * and it sends a copy of the latest state, so updates made while a browser is
+ * slow are coalesced rather than queued. A send that takes longer than
+ * SEND_TIMEOUT_MS completes that emitter, which drops it.
+ */
+@Component
+public class JobProgressBroadcaster implements DisposableBean {
+
+    private static final long MIN_CHUNK_INTERVAL_MS = 250;
+    private static final long EMITTER_TIMEOUT_MS = 30 * 60 * 1000L;
+    private static final long SEND_TIMEOUT_MS = 5000;
+    private static final int MAX_TRACKED_JOBS = 200;
+    private static final int SENDER_THREADS = 4;
+
+    private final Map<String, JobProgress> jobs = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JobProgress> eldest) {
+            return size() > MAX_TRACKED_JOBS;
+        }
+    };
+
+    private final ThreadPoolTaskExecutor sender;
+    private final ThreadPoolTaskScheduler watchdog;
+
+    public JobProgressBroadcaster() {
+        this.sender = new ThreadPoolTaskExecutor();
+        sender.setThreadNamePrefix("progress-sse-");
+        sender.setCorePoolSize(SENDER_THREADS);
+        sender.setMaxPoolSize(SENDER_THREADS);
+        sender.initialize();
+        this.watchdog = new ThreadPoolTaskScheduler();
+        watchdog.setThreadNamePrefix("progress-sse-watchdog-");
+        watchdog.initialize();
+    }
+
+    public SseEmitter subscribe(String jobId) {
+        JobProgress progress = progress(jobId);
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        emitter.onCompletion(() -> progress.emitters.remove(emitter));
+        emitter.onTimeout(() -> progress.emitters.remove(emitter));
+        emitter.onError(e -> progress.emitters.remove(emitter));
+        progress.emitters.add(emitter);
+        // The current state goes to every subscriber of the job, the new one included
+        synchronized (progress) {
+            schedule(progress);
+        }
+        return emitter;
+    }
+
+    /**
+     * Applies a change to the job's state and pushes the result.
+     */
+    public void update(String jobId, Consumer<Map<String, Object>> change) {
+        JobProgress progress = progress(jobId);
+        synchronized (progress) {
+            change.accept(progress.state);
+            progress.lastSent = System.currentTimeMillis();
+            schedule(progress);
+        }
+    }
+
+    /**
+     * Records the counts of one partition of a step after a chunk.
+     */
+    public void chunk(String jobId, String stepName, String partition, long readCount, long writeCount) {
+        JobProgress progress = progress(jobId);
+        synchronized (progress) {
+            progress.partitions.computeIfAbsent(stepName, s -> new HashMap<>())
+                    .put(partition, new long[] {readCount, writeCount});
+            progress.state.put("progress", progress.totals());
+            long now = System.currentTimeMillis();
+            if (now - progress.lastSent >= MIN_CHUNK_INTERVAL_MS) {
+                progress.lastSent = now;
+                schedule(progress);
+            }
+        }
+    }
+
+    private JobProgress progress(String jobId) {
+        synchronized (jobs) {
+            return jobs.computeIfAbsent(jobId, id -> new JobProgress());
+        }
+    }
+
+    // Called under the job's lock
+    private void schedule(JobProgress progress) {
+        progress.dirty = true;
+        if (!progress.sendScheduled) {
+            progress.sendScheduled = true;
+            sender.execute(() -> drain(progress));
+        }
+    }
+
+    private void drain(JobProgress progress) {
+        while (true) {
+            Map<String, Object> snapshot;
+            synchronized (progress) {
+                if (!progress.dirty) {
+                    progress.sendScheduled = false;
+                    return;
+                }
+                progress.dirty = false;
+                snapshot = new HashMap<>(progress.state);
+            }
+            progress.emitters.forEach(emitter -> send(progress, emitter, snapshot));
+        }
+    }
+
+    private void send(JobProgress progress, SseEmitter emitter, Map<String, Object> snapshot) {
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            System.err.println("Progress: dropping a subscriber slower than " + SEND_TIMEOUT_MS + " ms");
+            progress.emitters.remove(emitter);
+            emitter.complete();
+        }, Instant.now().plusMillis(SEND_TIMEOUT_MS));
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(snapshot));
+        } catch (IOException | IllegalStateException e) {
+            // Browser gone; it reconnects on its own and gets the current state again
+            progress.emitters.remove(emitter);
+        } finally {
+            timeout.cancel(false);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        sender.shutdown();
+        watchdog.shutdown();
+    }
+
+    private static final class JobProgress {
+        final Map<String, Object> state = new HashMap<>();
+        // step name -> partition -> {read, write}
+        final Map<String, Map<String, long[]>> partitions = new HashMap<>();
+        final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        long lastSent;
+        // A drain is pending or running; dirty: the state changed since it last copied it
+        boolean sendScheduled;
+        boolean dirty;
+
+        Map<String, Object> totals() {
+            Map<String, Object> totals = new HashMap<>();
+            partitions.forEach((step, counts) -> {
+                long read = 0;
+                long write = 0;
+                for (long[] count : counts.values()) {
+                    read += count[0];
+                    write += count[1];
+                }
+                totals.put(step, Map.of("readCount", read, "writeCount", write, "partitions", counts.size()));
+            });
+            return totals;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package dz.eadn.thecloudbatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+
+/**
+ * Feeds {@link JobProgressBroadcaster} from inside the job: step transitions of
+ * the partition managers (dbStep, fileStep...) and the read/write counts of
+ * each worker partition after every chunk. Register it on both the managers
+ * and the worker steps.
+ *
+ * Manager transitions are also recorded in {@link JobArtifactRegistry}, which
+ * answers /api/job/status.
+ */
+public class JobProgressListener implements StepExecutionListener, ChunkListener {
+
+    private final JobProgressBroadcaster broadcaster;
+    private final JobArtifactRegistry registry;
+
+    public JobProgressListener(JobProgressBroadcaster broadcaster, JobArtifactRegistry registry) {
+        this.broadcaster = broadcaster;
+        this.registry = registry;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        if (isWorker(stepExecution)) {
+            return;
+        }
+        registry.recordStep(jobId(stepExecution), stepExecution.getStepName(),
+                new JobArtifactRegistry.StepSnapshot(BatchStatus.STARTED.toString(), 0, 0, null));
+        broadcaster.update(jobId(stepExecution),
+                state -> state.put(stepExecution.getStepName() + "Status", BatchStatus.STARTED.toString()));
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (isWorker(stepExecution)) {
+            chunk(stepExecution);
+            return null;
+        }
+        String stepName = stepExecution.getStepName();
+        BatchStatus status = stepExecution.getStatus();
+        String error = status == BatchStatus.FAILED ? errorMessage(stepExecution) : null;
+        registry.recordStep(jobId(stepExecution), stepName, new JobArtifactRegistry.StepSnapshot(
+                status.toString(), stepExecution.getReadCount(), stepExecution.getWriteCount(), error));
+        broadcaster.update(jobId(stepExecution), state -> {
+            state.put(stepName + "Status", status.toString());
+            if (status == BatchStatus.COMPLETED) {
+                state.put(stepName + "Details", details(stepExecution));
+            } else if (error != null) {
+                state.put(stepName + "Error", error);
+            }
+        });
+        return null;
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        chunk(context.getStepContext().getStepExecution());
+    }
+
+    private void chunk(StepExecution stepExecution) {
+        String[] name = stepExecution.getStepName().split(":", 2);
+        broadcaster.chunk(jobId(stepExecution), name[0], name.length > 1 ? name[1] : name[0],
+                stepExecution.getReadCount(), stepExecution.getWriteCount());
+    }
+
+    // Same details as /api/job/status, taken from the finished step and the files the writers registered
+    private Map<String, Object> details(StepExecution stepExecution) {
+        Map<String, Object> details = new HashMap<>();
+        details.put("recordsProcessed", stepExecution.getReadCount());
+        details.put("recordsWritten", stepExecution.getWriteCount());
+
+        List<String> lotFiles = registry.artifacts(jobId(stepExecution), "LOT");
+        List<String> ordFiles = registry.artifacts(jobId(stepExecution), "ORD");
+        if (!lotFiles.isEmpty() || !ordFiles.isEmpty()) {
+            details.put("lotFiles", lotFiles);
+            details.put("ordFiles", ordFiles);
+            details.put("outputDir", stepExecution.getJobParameters().getString("outputDirectory"));
+        }
+        return details;
+    }
+
+    private String errorMessage(StepExecution stepExecution) {
+        List<Throwable> failures = new ArrayList<>(stepExecution.getFailureExceptions());
+        // A partition manager only knows that a worker failed; the cause is on the worker
+        for (StepExecution step : stepExecution.getJobExecution().getStepExecutions()) {
+            if (isWorker(step) && step.getStepName().startsWith(workerPrefix(stepExecution))) {
+                failures.addAll(0, step.getFailureExceptions());
+            }
+        }
+        return failures.isEmpty() ? "Unknown error occurred" : failures.get(0).getMessage();
+    }
+
+    // Workers of the fileStep manager are named fileWorkerStep:<partition>, those of dbStep dbWorkerStep:<partition>
+    private static String workerPrefix(StepExecution manager) {
+        return manager.getStepName().replace("Step", "WorkerStep") + ":";
+    }
+
+    private static boolean isWorker(StepExecution stepExecution) {
+        return stepExecution.getStepName().contains(":");
+    }
+
+    private static String jobId(StepExecution stepExecution) {
+        return String.valueOf(stepExecution.getJobExecution().getJobId());
+    }
+}
@@ -0,0 +1,98 @@
+package dz.eadn.thecloudbatch;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Hands out lot numbers (1 to 999 per day) from the lot_counters table, per file
+ * kind. Numbers are reserved in blocks: the counter row is locked with SELECT
+ * FOR UPDATE and advanced in its own transaction, so concurrent jobs and nodes
+ * never get the same number, a chunk rollback does not give a reserved block
+ * back, and a restarted JVM carries on after the last reserved number.
+ *
+ * Numbers left in a block when the JVM stops or the day changes are skipped,
+ * so keep the block small next to the 999 available each day.
+ */
+public class LotNumberAllocator {
+
+    public static final int MAX_LOT_NUMBER = 999;
+
+    private static final String LOCK_SQL = "SELECT next_lot FROM lot_counters WHERE lot_date = ? AND kind = ? FOR UPDATE";
+    private static final String INSERT_SQL = "INSERT INTO lot_counters (lot_date, kind, next_lot) VALUES (?, ?, 1)";
+    private static final String ADVANCE_SQL = "UPDATE lot_counters SET next_lot = ? WHERE lot_date = ? AND kind = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int blockSize;
+
+    private final Map<String, Block> blocks = new HashMap<>();
+
+    public LotNumberAllocator(DataSource dataSource, PlatformTransactionManager transactionManager, int blockSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Reserve outside the chunk transaction: a rolled-back chunk must not free numbers another node may hold
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    public synchronized int nextLotNumber(String kind) {
+        LocalDate today = LocalDate.now();
+        Block block = blocks.get(kind);
+        if (block == null || !block.date.equals(today) || block.next == block.end) {
+            block = reserve(kind, today);
+            blocks.put(kind, block);
+        }
+        return block.next++;
+    }
+
+    private Block reserve(String kind, LocalDate date) {
+        return transactionTemplate.execute(status -> {
+            Date day = Date.valueOf(date);
+            int first = lock(day, kind);
+            if (first > MAX_LOT_NUMBER) {
+                throw new IllegalStateException("No " + kind + " lot numbers left for " + date
+                        + " (limit " + MAX_LOT_NUMBER + ")");
+            }
+            int end = Math.min(first + blockSize, MAX_LOT_NUMBER + 1);
+            jdbcTemplate.update(ADVANCE_SQL, end, day, kind);
+            return new Block(date, first, end);
+        });
+    }
+
+    // Locks the day's counter row, creating it on the first lot of the day
+    private int lock(Date day, String kind) {
+        List<Integer> next = jdbcTemplate.queryForList(LOCK_SQL, Integer.class, day, kind);
+        if (!next.isEmpty()) {
+            return next.get(0);
+        }
+        try {
+            jdbcTemplate.update(INSERT_SQL, day, kind);
+        } catch (DuplicateKeyException e) {
+            // Another node created it first; its insert has committed, so lock that row
+        }
+        return jdbcTemplate.queryForObject(LOCK_SQL, Integer.class, day, kind);
+    }
+
+    private static final class Block {
+        final LocalDate date;
+        int next;
+        final int end;
+
+        Block(LocalDate date, int next, int end) {
+            this.date = date;
+            this.next = next;
+            this.end = end;
+        }
+    }
+}
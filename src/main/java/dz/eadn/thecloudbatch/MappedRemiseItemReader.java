@@ -0,0 +1,234 @@
+package dz.eadn.thecloudbatch;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.file.FlatFileParseException;
+import org.springframework.batch.item.file.LineMapper;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads remise / CRA files through read-only memory mappings of the file instead
+ * of a BufferedReader. Record boundaries are found by scanning the mapped bytes
+ * for '\n'; the file is mapped in windows so files larger than 2 GB work too.
+ *
+ * Besides the read count kept by the parent class, the byte offset of the next
+ * line is saved in the ExecutionContext so a restart seeks straight to it instead
+ * of re-reading the items already committed.
+ *
+ * Differences with the FlatFileItemReader it replaces: blank lines are skipped
+ * rather than handed to the line mapper, and lines are decoded as ISO-8859-1
+ * unless another charset is set (remise files are ASCII, so both read the same).
+ *
+ * A mapping is only released when the garbage collector reclaims it, and on
+ * Windows a mapped file cannot be renamed or moved until then, which would make
+ * the .DONE rename and the CRA archiving fail. So on Windows, or with
+ * memoryMapped=false, the windows are read with positional FileChannel reads
+ * into a heap buffer instead, and close() leaves nothing mapped.
+ */
+public class MappedRemiseItemReader extends AbstractItemCountingItemStreamItemReader<Cheque> {
+
+    private static final String POSITION_KEY = "position";
+    private static final String LINE_KEY = "line";
+    private static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int READ_WINDOW_SIZE = 1024 * 1024;
+
+    private Resource resource;
+    private LineMapper<Cheque> lineMapper = new RemiseLineMapper();
+    private int linesToSkip = 0;
+    private Charset charset = StandardCharsets.ISO_8859_1;
+    private long windowSize = DEFAULT_WINDOW_SIZE;
+    private boolean memoryMapped = File.separatorChar != '\\';
+
+    private FileChannel channel;
+    private long fileSize;
+    private ByteBuffer window;
+    private ByteBuffer readBuffer;
+    private long windowStart;
+    private long position;
+    private int lineNumber;
+    private byte[] lineBuffer = new byte[256];
+
+    // Restored from the ExecutionContext on restart, -1 otherwise
+    private long restoredPosition = -1;
+    private int restoredLineNumber;
+
+    public MappedRemiseItemReader() {
+        setName("mappedRemiseItemReader");
+    }
+
+    public void setResource(Resource resource) {
+        this.resource = resource;
+    }
+
+    public void setLineMapper(LineMapper<Cheque> lineMapper) {
+        this.lineMapper = lineMapper;
+    }
+
+    public void setLinesToSkip(int linesToSkip) {
+        this.linesToSkip = linesToSkip;
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    public void setWindowSize(long windowSize) {
+        Assert.isTrue(windowSize > 0 && windowSize <= Integer.MAX_VALUE, "windowSize must be between 1 and 2^31-1");
+        this.windowSize = windowSize;
+    }
+
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        String positionKey = getExecutionContextKey(POSITION_KEY);
+        if (isSaveState() && executionContext.containsKey(positionKey)) {
+            restoredPosition = executionContext.getLong(positionKey);
+            restoredLineNumber = executionContext.getInt(getExecutionContextKey(LINE_KEY), 0);
+        } else {
+            restoredPosition = -1;
+        }
+        super.open(executionContext);
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        super.update(executionContext);
+        if (isSaveState()) {
+            executionContext.putLong(getExecutionContextKey(POSITION_KEY), position);
+            executionContext.putInt(getExecutionContextKey(LINE_KEY), lineNumber);
+        }
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        Assert.state(resource != null, "Resource must be set");
+        channel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ);
+        fileSize = channel.size();
+        window = null;
+        position = 0;
+        lineNumber = 0;
+        for (int i = 0; i < linesToSkip && nextLine() >= 0; i++) {
+            // header lines are discarded
+        }
+    }
+
+    @Override
+    protected void jumpToItem(int itemIndex) throws Exception {
+        if (restoredPosition < 0) {
+            super.jumpToItem(itemIndex);
+            return;
+        }
+        position = restoredPosition;
+        lineNumber = restoredLineNumber;
+        window = null;
+    }
+
+    @Override
+    protected Cheque doRead() throws Exception {
+        int length;
+        do {
+            length = nextLine();
+            if (length < 0) {
+                return null;
+            }
+        } while (length == 0);
+
+        String line = new String(lineBuffer, 0, length, charset);
+        try {
+            return lineMapper.mapLine(line, lineNumber);
+        } catch (Exception e) {
+            throw new FlatFileParseException("Parsing error at line: " + lineNumber + " in resource=["
+                    + resource.getDescription() + "], input=[" + line + "]", e, line, lineNumber);
+        }
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        // Drops the last mapping; it is unmapped once collected
+        window = null;
+        readBuffer = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private ByteBuffer readWindow(long start) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = ByteBuffer.allocate((int) Math.min(windowSize, READ_WINDOW_SIZE));
+        }
+        readBuffer.clear();
+        readBuffer.limit((int) Math.min(readBuffer.capacity(), fileSize - start));
+        while (readBuffer.hasRemaining()) {
+            if (channel.read(readBuffer, start + readBuffer.position()) < 0) {
+                break;
+            }
+        }
+        readBuffer.flip();
+        if (!readBuffer.hasRemaining()) {
+            throw new IOException(resource.getDescription() + " is shorter than its " + fileSize + " bytes");
+        }
+        return readBuffer;
+    }
+
+    /**
+     * Copies the next line (without its line terminator) into lineBuffer and
+     * returns its length, or -1 at end of file.
+     */
+    private int nextLine() throws IOException {
+        if (position >= fileSize) {
+            return -1;
+        }
+        int length = 0;
+        while (true) {
+            if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+                windowStart = position;
+                window = memoryMapped
+                        ? channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, fileSize - windowStart))
+                        : readWindow(windowStart);
+            }
+            int offset = (int) (position - windowStart);
+            int limit = window.limit();
+            int end = offset;
+            while (end < limit && window.get(end) != '\n') {
+                end++;
+            }
+            int count = end - offset;
+            if (length + count > lineBuffer.length) {
+                byte[] larger = new byte[Math.max(lineBuffer.length * 2, length + count)];
+                System.arraycopy(lineBuffer, 0, larger, 0, length);
+                lineBuffer = larger;
+            }
+            window.get(offset, lineBuffer, length, count);
+            length += count;
+            position += count;
+            if (end < limit) {
+                position++; // the '\n'
+                break;
+            }
+            if (position >= fileSize) {
+                break; // last line has no terminator
+            }
+        }
+        lineNumber++;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,101 @@
+package dz.eadn.thecloudbatch;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+
+/**
+ * Writes the one ORD file of a chequeJob run once every fileStep partition is
+ * done: the INLOT order for the LOT file of the lowest beneficiary bank, then
+ * operation type, the run wrote. That is the file the single, unpartitioned
+ * writer used to order, as it created its first LOT file from rows read in
+ * bank / operation type order.
+ *
+ * The LOT files are those checkpointed by the partitions' writers in their
+ * step execution contexts, across every execution of the job instance, so
+ * partitions completed before a restart count too. A run that wrote no LOT
+ * file writes no ORD file.
+ */
+public class OrdFileTasklet implements Tasklet {
+
+    private final JobExplorer jobExplorer;
+    private final String outputDirectory;
+    private final String workerStepPrefix;
+    private final String writerName;
+    private JobArtifactRegistry artifactRegistry;
+
+    /**
+     * @param workerStepPrefix name of the fileStep workers up to the partition name (fileWorkerStep:)
+     * @param writerName       name of their LOT writer, which prefixes its checkpoint keys
+     */
+    public OrdFileTasklet(JobExplorer jobExplorer, String outputDirectory, String workerStepPrefix, String writerName) {
+        this.jobExplorer = jobExplorer;
+        this.outputDirectory = outputDirectory;
+        this.workerStepPrefix = workerStepPrefix;
+        this.writerName = writerName;
+    }
+
+    public void setArtifactRegistry(JobArtifactRegistry artifactRegistry) {
+        this.artifactRegistry = artifactRegistry;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        JobExecution current = chunkContext.getStepContext().getStepExecution().getJobExecution();
+
+        // Latest completed execution of each partition
+        Map<String, StepExecution> partitions = new HashMap<>();
+        for (JobExecution execution : jobExplorer.getJobExecutions(current.getJobInstance())) {
+            for (StepExecution step : execution.getStepExecutions()) {
+                if (step.getStepName().startsWith(workerStepPrefix) && step.getStatus() == BatchStatus.COMPLETED) {
+                    partitions.merge(step.getStepName(), step, (a, b) -> a.getId() > b.getId() ? a : b);
+                }
+            }
+        }
+
+        Optional<CustomItemWriter.CheckpointedFile> ordered = partitions.values().stream()
+                .flatMap(step -> CustomItemWriter.checkpointedFiles(step.getExecutionContext(), writerName).stream())
+                .min(Comparator.comparingInt(CustomItemWriter.CheckpointedFile::bank)
+                        .thenComparingInt(CustomItemWriter.CheckpointedFile::operationType));
+        if (ordered.isEmpty()) {
+            System.out.println("No LOT file written, no ORD file");
+            return RepeatStatus.FINISHED;
+        }
+
+        CustomItemWriter.CheckpointedFile lot = ordered.get();
+        String ordFileName = new FileNameBuilder()
+                .addBeneficiaryBank(lot.bank())
+                .addLotNumber(lot.lotNumber())
+                .addTimestamp()
+                .extension("ORD")
+                .build();
+        Path ordFile = Path.of(outputDirectory, ordFileName);
+        try (BufferedWriter writer = Files.newBufferedWriter(ordFile)) {
+            writer.write("command_type.lot_number.operation_type");
+            writer.newLine();
+            writer.write("INLOT." + String.format("%03d", lot.lotNumber()) + "." + String.format("%03d", lot.operationType()));
+            writer.newLine();
+        } catch (IOException e) {
+            throw new IOException("Failed to write ORD file " + ordFile, e);
+        }
+        if (artifactRegistry != null) {
+            artifactRegistry.registerArtifact(String.valueOf(current.getJobId()), "ORD", ordFileName);
+        }
+        System.out.println("ORD file " + ordFileName + " orders " + lot.fileName());
+        return RepeatStatus.FINISHED;
+    }
+}
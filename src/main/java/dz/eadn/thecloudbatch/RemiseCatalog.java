@@ -0,0 +1,372 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory catalog of the remise files of the upload directory, pending
+ * (.remise) and ingested (.remise.DONE), kept up to date by a WatchService
+ * thread so that listing them never touches the directory.
+ *
+ * Each entry holds the fields of the file name
+ * (operation_type.beneficiary_bank.beneficiary_rib.ddMMyyyyHHmm.remise), the
+ * number of cheques and their total amount, and its state. The counts of the
+ * files that went through the upload endpoint come from remise_uploads when
+ * the directory is loaded; the others are counted (not hashed) once when the
+ * file appears. The directory is loaded by the watcher thread once the
+ * application is ready; until then the catalog is empty.
+ *
+ * A .remise renamed to .remise.DONE keeps its entry: the rename is delivered
+ * as a delete of the old name, then a create of the new one.
+ *
+ * Pending and ingested entries are kept in two maps, so listing the pending
+ * files does not walk the ingested ones, which only grow. A file being written
+ * sends a stream of modify events: it is only read once it has had none for
+ * batch.intake.quiet-seconds, the delay the intake flow waits too.
+ */
+@Component
+public class RemiseCatalog implements DisposableBean {
+
+    private static final String PENDING_SUFFIX = ".remise";
+    private static final String DONE_SUFFIX = ".remise.DONE";
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("ddMMyyyyHHmm");
+    private static final String UPLOADED_COUNTS_SQL = "SELECT file_name, line_count, total_amount FROM remise_uploads";
+    private static final Comparator<String> ORDER = Comparator.reverseOrder();
+
+    public enum State { PENDING, INGESTED }
+
+    public record Entry(String fileName, Path path, State state, String operationType, String beneficiaryBank,
+                        String beneficiaryRib, String timestamp, LocalDateTime date,
+                        long size, long lastModified, long lineCount, long totalAmount) {
+    }
+
+    public record Filter(State state, String operationType, String beneficiaryBank, String beneficiaryRib,
+                         LocalDateTime from, LocalDateTime to) implements Predicate<Entry> {
+        @Override
+        public boolean test(Entry entry) {
+            return (state == null || state == entry.state())
+                    && (operationType == null || operationType.equals(entry.operationType()))
+                    && (beneficiaryBank == null || beneficiaryBank.equals(entry.beneficiaryBank()))
+                    && (beneficiaryRib == null || beneficiaryRib.equals(entry.beneficiaryRib()))
+                    && (from == null || (entry.date() != null && !entry.date().isBefore(from)))
+                    && (to == null || (entry.date() != null && entry.date().isBefore(to)));
+        }
+    }
+
+    public record Page(List<Entry> entries, int total) {
+    }
+
+    private final Path directory;
+    private final JdbcTemplate jdbcTemplate;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    // {lineCount, totalAmount} by uploaded file name, for the initial load only
+    private Map<String, long[]> uploadedCounts = Map.of();
+
+    // Keyed by the name without .DONE, most recent name first, as the listing used to be sorted.
+    // An entry moving to INGESTED is put in its new map before leaving the old one.
+    private final ConcurrentSkipListMap<String, Entry> pending = new ConcurrentSkipListMap<>(ORDER);
+    private final ConcurrentSkipListMap<String, Entry> ingested = new ConcurrentSkipListMap<>(ORDER);
+
+    // Files created or modified since they were last read, with the System.nanoTime()
+    // of their last event; watcher thread only
+    private final Map<Path, Long> unsettled = new HashMap<>();
+    private final long quietNanos;
+
+    public RemiseCatalog(@Value("${batch.intake.dir:uploads/remises/}") String uploadDirectory,
+            @Value("${batch.intake.quiet-seconds:2}") long quietSeconds,
+            DataSource dataSource) throws IOException {
+        this.directory = Files.createDirectories(Path.of(uploadDirectory));
+        this.quietNanos = TimeUnit.SECONDS.toNanos(quietSeconds);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // Registered before the initial load so that no file falls between the two
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.thread = new Thread(this::watch, "remise-catalog");
+        thread.setDaemon(true);
+    }
+
+    // Once remise_uploads is sure to exist
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * The entries matching the filter, in catalog order, from offset on.
+     */
+    public Page list(Filter filter, int offset, int limit) {
+        Iterator<Entry> candidates = filter.state() == State.PENDING ? pending.values().iterator()
+                : filter.state() == State.INGESTED ? ingested.values().iterator()
+                : merged(pending.values().iterator(), ingested.values().iterator());
+        List<Entry> page = new ArrayList<>(Math.min(limit, 1000));
+        int total = 0;
+        while (candidates.hasNext()) {
+            Entry entry = candidates.next();
+            if (filter.test(entry)) {
+                if (total >= offset && page.size() < limit) {
+                    page.add(entry);
+                }
+                total++;
+            }
+        }
+        return new Page(page, total);
+    }
+
+    // Both maps in catalog order; an entry caught in both while it moves is listed once
+    private static Iterator<Entry> merged(Iterator<Entry> first, Iterator<Entry> second) {
+        return new Iterator<>() {
+            private Entry a = first.hasNext() ? first.next() : null;
+            private Entry b = second.hasNext() ? second.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return a != null || b != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (a == null && b == null) {
+                    throw new NoSuchElementException();
+                }
+                int order = a == null ? 1 : b == null ? -1 : ORDER.compare(key(a.fileName()), key(b.fileName()));
+                Entry next = order <= 0 ? a : b;
+                if (order <= 0) {
+                    a = first.hasNext() ? first.next() : null;
+                }
+                if (order >= 0) {
+                    b = second.hasNext() ? second.next() : null;
+                }
+                return next;
+            }
+        };
+    }
+
+    private void watch() {
+        uploadedCounts = loadUploadedCounts();
+        rescan();
+        uploadedCounts = Map.of();
+        try {
+            while (true) {
+                WatchKey key = unsettled.isEmpty() ? watchService.take()
+                        : watchService.poll(untilNextSettled(), TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            rescan();
+                        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            Path file = directory.resolve((Path) event.context());
+                            unsettled.remove(file);
+                            removed(file);
+                        } else if (key(event.context().toString()) != null) {
+                            unsettled.put(directory.resolve((Path) event.context()), System.nanoTime());
+                        }
+                    }
+                    if (!key.reset()) {
+                        System.err.println("Remise catalog: " + directory + " is no longer accessible");
+                        return;
+                    }
+                }
+                updateSettled();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    // Reads the files that have had no event for the quiet period
+    private void updateSettled() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Long>> files = unsettled.entrySet().iterator();
+        while (files.hasNext()) {
+            Map.Entry<Path, Long> file = files.next();
+            if (now - file.getValue() >= quietNanos) {
+                files.remove();
+                update(file.getKey());
+            }
+        }
+    }
+
+    private long untilNextSettled() {
+        long now = System.nanoTime();
+        long wait = quietNanos;
+        for (long lastEvent : unsettled.values()) {
+            wait = Math.min(wait, lastEvent + quietNanos - now);
+        }
+        return Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private void rescan() {
+        Set<String> present = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String key = key(file.getFileName().toString());
+                if (key != null) {
+                    present.add(key);
+                    update(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list " + directory + ": " + e.getMessage());
+            return;
+        }
+        pending.keySet().retainAll(present);
+        ingested.keySet().retainAll(present);
+        System.out.println("Remise catalog: " + pending.size() + " pending and " + ingested.size()
+                + " ingested files in " + directory);
+    }
+
+    private void update(Path file) {
+        String fileName = file.getFileName().toString();
+        String key = key(fileName);
+        if (key == null) {
+            return;
+        }
+        try {
+            long size = Files.size(file);
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            Entry known = entry(key);
+            long[] uploaded = uploadedCounts.get(key + PENDING_SUFFIX);
+            long lineCount;
+            long totalAmount;
+            if (known != null && known.size() == size
+                    && (known.lastModified() == lastModified || !known.fileName().equals(fileName))) {
+                // Unchanged, or only renamed to .DONE: no need to read it again
+                lineCount = known.lineCount();
+                totalAmount = known.totalAmount();
+            } else if (known == null && uploaded != null) {
+                // Counted by the upload endpoint, and uploaded files are not rewritten
+                lineCount = uploaded[0];
+                totalAmount = uploaded[1];
+            } else {
+                RemiseContentScanner scan = RemiseContentScanner.scan(file, false);
+                lineCount = scan.lines;
+                totalAmount = scan.total;
+            }
+            put(key, entry(file, fileName, size, lastModified, lineCount, totalAmount));
+        } catch (NoSuchFileException e) {
+            // Already renamed or deleted; its own event follows
+        } catch (IOException e) {
+            System.err.println("Remise catalog: failed to read " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void removed(Path file) {
+        String fileName = file.getFileName().toString();
+        String key = key(fileName);
+        if (key != null && fileName.endsWith(PENDING_SUFFIX)) {
+            Path done = file.resolveSibling(key + DONE_SUFFIX);
+            if (Files.exists(done)) {
+                // Renamed to .DONE; its create event has not been handled yet
+                update(done);
+                return;
+            }
+        }
+        // Only if it is the current name: a .remise renamed to .remise.DONE keeps its entry
+        if (key != null && !Files.exists(file)) {
+            pending.computeIfPresent(key, (k, entry) -> entry.fileName().equals(fileName) ? null : entry);
+            ingested.computeIfPresent(key, (k, entry) -> entry.fileName().equals(fileName) ? null : entry);
+        }
+    }
+
+    private Entry entry(String key) {
+        Entry entry = pending.get(key);
+        return entry != null ? entry : ingested.get(key);
+    }
+
+    private void put(String key, Entry entry) {
+        if (entry.state() == State.PENDING) {
+            pending.put(key, entry);
+            ingested.remove(key);
+        } else {
+            ingested.put(key, entry);
+            pending.remove(key);
+        }
+    }
+
+    private Map<String, long[]> loadUploadedCounts() {
+        Map<String, long[]> counts = new HashMap<>();
+        try {
+            jdbcTemplate.query(UPLOADED_COUNTS_SQL, rs -> {
+                counts.put(rs.getString(1), new long[] {rs.getLong(2), rs.getLong(3)});
+            });
+        } catch (RuntimeException e) {
+            System.err.println("Remise catalog: failed to load the upload counts, counting the files instead: " + e.getMessage());
+        }
+        return counts;
+    }
+
+    private static Entry entry(Path file, String fileName, long size, long lastModified, long lineCount, long totalAmount) {
+        State state = fileName.endsWith(DONE_SUFFIX) ? State.INGESTED : State.PENDING;
+        // operation_type.beneficiary_bank.beneficiary_rib.ddMMyyyyHHmm
+        String[] parts = key(fileName).split("\\.");
+        String timestamp = parts.length >= 4 ? parts[3] : null;
+        LocalDateTime date = null;
+        if (timestamp != null) {
+            try {
+                date = LocalDateTime.parse(timestamp, TIMESTAMP);
+            } catch (DateTimeParseException e) {
+                // Not the usual naming; listed without a date
+            }
+        }
+        return new Entry(fileName, file.toAbsolutePath(), state,
+                parts.length >= 1 ? parts[0] : null,
+                parts.length >= 2 ? parts[1] : null,
+                parts.length >= 3 ? parts[2] : null,
+                timestamp, date, size, lastModified, lineCount, totalAmount);
+    }
+
+    // The file name without .remise / .remise.DONE, or null for other files
+    private static String key(String fileName) {
+        if (fileName.startsWith(".")) {
+            return null;
+        }
+        if (fileName.endsWith(DONE_SUFFIX)) {
+            return fileName.substring(0, fileName.length() - DONE_SUFFIX.length());
+        }
+        if (fileName.endsWith(PENDING_SUFFIX)) {
+            return fileName.substring(0, fileName.length() - PENDING_SUFFIX.length());
+        }
+        return null;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+}
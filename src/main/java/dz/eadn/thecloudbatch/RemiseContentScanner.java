@@ -0,0 +1,175 @@
+package dz.eadn.thecloudbatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Hashes the bytes of a remise file (unless built without a digest) and follows its layout, across buffer
+ * boundaries, as they go by: the first line is the header, every other
+ * non-blank line a cheque of eight '.'-separated fields whose last one is the
+ * amount. The numeric fields are checked with the rules of
+ * {@link RemiseLineMapper}, so a file accepted here is one the job can read:
+ * an optional '-', 1 to 18 digits, and the range of the field's type.
+ * Counts the cheque lines and totals their amounts; only the first bad line is
+ * reported, in {@link #error}.
+ *
+ * Feed it with {@link #scan} and call {@link #finish} at the end of the file.
+ */
+class RemiseContentScanner {
+
+    private static final int FIELD_COUNT = RemiseLineMapper.FIELD_NAMES.length;
+    private static final int AMOUNT = FIELD_COUNT - 1;
+    private static final int MAX_DIGITS = 18;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // {min, max} of each numeric field as RemiseLineMapper maps it, null for text fields
+    private static final long[][] RANGES = {
+            null,
+            {Short.MIN_VALUE, Short.MAX_VALUE},
+            null,
+            {Short.MIN_VALUE, Short.MAX_VALUE},
+            {Long.MIN_VALUE, Long.MAX_VALUE},
+            null,
+            {Short.MIN_VALUE, Short.MAX_VALUE},
+            {Integer.MIN_VALUE, Integer.MAX_VALUE}};
+
+    long lines;
+    long total;
+    String error;
+
+    private final MessageDigest digest;
+    private long lineNumber = 1;
+    private int separators;
+    private boolean blank = true;
+    // First invalid numeric field of the line, -1 if none so far
+    private int badField = -1;
+    private long amount;
+
+    // The numeric field being read
+    private int fieldLength;
+    private int digits;
+    private long value;
+    private boolean negative;
+    private boolean badNumber;
+
+    RemiseContentScanner() {
+        this(true);
+    }
+
+    RemiseContentScanner(boolean hashed) {
+        try {
+            digest = hashed ? MessageDigest.getInstance("SHA-256") : null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static RemiseContentScanner scan(Path file) throws IOException {
+        return scan(file, true);
+    }
+
+    static RemiseContentScanner scan(Path file, boolean hashed) throws IOException {
+        RemiseContentScanner scanner = new RemiseContentScanner(hashed);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                scanner.scan(buffer, read);
+            }
+        }
+        scanner.finish();
+        return scanner;
+    }
+
+    void scan(byte[] buffer, int length) {
+        if (digest != null) {
+            digest.update(buffer, 0, length);
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = buffer[i];
+            if (b == '\n') {
+                endOfLine();
+            } else if (b != '\r') {
+                blank = false;
+                if (b == '.') {
+                    endOfField();
+                    separators++;
+                } else if (separators < FIELD_COUNT && RANGES[separators] != null) {
+                    if (b == '-' && fieldLength == 0) {
+                        negative = true;
+                    } else if (b >= '0' && b <= '9') {
+                        // Past 18 digits the field is rejected, so stop accumulating before overflow
+                        if (digits < MAX_DIGITS) {
+                            value = value * 10 + (b - '0');
+                        }
+                        digits++;
+                    } else {
+                        badNumber = true;
+                    }
+                    fieldLength++;
+                }
+            }
+        }
+    }
+
+    void finish() {
+        // Last line without a line feed
+        endOfLine();
+    }
+
+    /**
+     * SHA-256 of the bytes scanned, in hex; call once, after {@link #finish}.
+     */
+    String hash() {
+        if (digest == null) {
+            throw new IllegalStateException("Scanned without a digest");
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void endOfField() {
+        if (separators < FIELD_COUNT && RANGES[separators] != null) {
+            long number = negative ? -value : value;
+            if (badNumber || digits == 0 || digits > MAX_DIGITS
+                    || number < RANGES[separators][0] || number > RANGES[separators][1]) {
+                if (badField < 0) {
+                    badField = separators;
+                }
+            } else if (separators == AMOUNT) {
+                amount = number;
+            }
+        }
+        fieldLength = 0;
+        digits = 0;
+        value = 0;
+        negative = false;
+        badNumber = false;
+    }
+
+    private void endOfLine() {
+        if (lineNumber > 1 && !blank && error == null) {
+            if (separators != FIELD_COUNT - 1) {
+                error = "Line " + lineNumber + ": expected " + FIELD_COUNT + " fields, found " + (separators + 1);
+            } else {
+                endOfField();
+                if (badField >= 0) {
+                    error = "Line " + lineNumber + ": invalid " + RemiseLineMapper.FIELD_NAMES[badField];
+                } else {
+                    lines++;
+                    total += amount;
+                }
+            }
+        }
+        lineNumber++;
+        separators = 0;
+        blank = true;
+        badField = -1;
+        amount = 0;
+        endOfField();
+    }
+}
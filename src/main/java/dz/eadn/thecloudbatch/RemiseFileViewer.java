@@ -0,0 +1,170 @@
+package dz.eadn.thecloudbatch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Serves a slice of a remise (or LOT, CRA...) file, by byte range or by line
+ * range, without reading the rest of it.
+ *
+ * Line ranges go through a sparse index of the file: the offset of every
+ * INDEX_STRIDE-th line, built by one scan on first access and kept for the
+ * MAX_INDEXED_FILES most recently viewed files. A page is then found by
+ * reading at most INDEX_STRIDE lines from the nearest indexed offset. An
+ * index is rebuilt when its file's size or modification time changes.
+ *
+ * The bytes go from the FileChannel to the response with transferTo, so
+ * memory use does not depend on the file or page size.
+ */
+@Component
+public class RemiseFileViewer {
+
+    private static final int INDEX_STRIDE = 1024;
+    private static final int MAX_INDEXED_FILES = 64;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    public record Range(long start, long end, long firstLine, long lineCount, long totalLines, long fileSize) {
+        public long length() {
+            return end - start;
+        }
+    }
+
+    private final Map<Path, LineIndex> indexes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, LineIndex> eldest) {
+            return size() > MAX_INDEXED_FILES;
+        }
+    };
+
+    /**
+     * Bytes [offset, offset + length) of the file, cut to its size.
+     */
+    public Range byteRange(Path file, long offset, long length) throws IOException {
+        long size = Files.size(file);
+        long start = Math.min(offset, size);
+        return new Range(start, Math.min(size, start + length), -1, -1, -1, size);
+    }
+
+    /**
+     * Lines [fromLine, fromLine + lineCount) of the file, 0 being the header;
+     * fewer at the end of the file.
+     */
+    public Range lineRange(Path file, long fromLine, int lineCount) throws IOException {
+        LineIndex index = index(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long first = Math.min(fromLine, index.totalLines);
+            int stride = (int) Math.min(first / INDEX_STRIDE, index.offsets.length - 1);
+            long start = skipLines(channel, index.offsets[stride], first - (long) stride * INDEX_STRIDE);
+            long end = skipLines(channel, start, lineCount);
+            long count = Math.min(lineCount, index.totalLines - first);
+            return new Range(start, end, first, count, index.totalLines, index.size);
+        }
+    }
+
+    public void transfer(Path file, Range range, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = range.start();
+            while (position < range.end()) {
+                long sent = channel.transferTo(position, range.end() - position, target);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+            }
+        }
+    }
+
+    private LineIndex index(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        long size = Files.size(key);
+        long modified = Files.getLastModifiedTime(key).toMillis();
+        LineIndex index;
+        synchronized (indexes) {
+            index = indexes.get(key);
+        }
+        if (index != null && index.size == size && index.modified == modified) {
+            return index;
+        }
+        // Built outside the lock: two first viewers of the same file may both scan it
+        index = build(key, size, modified);
+        synchronized (indexes) {
+            indexes.put(key, index);
+        }
+        return index;
+    }
+
+    private static LineIndex build(Path file, long size, long modified) throws IOException {
+        long[] offsets = new long[16];
+        int indexed = 1;
+        long lines = 0;
+        long position = 0;
+        byte last = '\n';
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    last = buffer.get(i);
+                    if (last == '\n') {
+                        lines++;
+                        if (lines % INDEX_STRIDE == 0) {
+                            if (indexed == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, indexed * 2);
+                            }
+                            offsets[indexed++] = position + i + 1;
+                        }
+                    }
+                }
+                position += read;
+            }
+        }
+        if (last != '\n') {
+            // Last line without a line feed
+            lines++;
+        }
+        return new LineIndex(Arrays.copyOf(offsets, indexed), lines, size, modified);
+    }
+
+    // Offset just after the count-th line feed from position, or the end of the file
+    private static long skipLines(FileChannel channel, long position, long count) throws IOException {
+        if (count <= 0) {
+            return position;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long remaining = count;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return position;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n' && --remaining == 0) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    private record LineIndex(long[] offsets, long totalLines, long size, long modified) {
+    }
+}
@@ -0,0 +1,99 @@
+package dz.eadn.thecloudbatch;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.dsl.IntegrationFlow;
+import org.springframework.integration.dsl.Pollers;
+import org.springframework.integration.file.dsl.Files;
+import org.springframework.integration.file.filters.AcceptOnceFileListFilter;
+import org.springframework.integration.file.filters.ChainFileListFilter;
+import org.springframework.integration.file.filters.LastModifiedFileListFilter;
+import org.springframework.integration.file.filters.SimplePatternFileListFilter;
+
+/**
+ * Event-driven intake: watches the remise upload directory and launches
+ * chequeJob for the files that arrive, instead of waiting for POST /api/job/start.
+ *
+ * A file is picked up once it has not been modified for quiet-seconds (so an
+ * upload still being copied is left alone), then held for up to batch-window-ms
+ * to be launched together with files arriving right after it. Each run only
+ * reads and marks the files it was started for (remiseFiles job parameter).
+ * Runs are queued on the chequeJob pool of {@link JobLaunchService}, shared with
+ * manual launches, which runs them one after the other by default since fileStep
+ * writes LOT files for every pending cheque. Files whose launch is rejected
+ * (queue full) are picked up again by the next poll; a file whose run fails
+ * stays in the directory and is picked up again on the next application start.
+ *
+ * Off unless batch.intake.enabled=true.
+ */
+@Configuration
+@ConditionalOnProperty(name = "batch.intake.enabled", havingValue = "true")
+public class RemiseIntakeFlow {
+
+    @Bean
+    public IntegrationFlow remiseIntakeFlow(
+            JobLaunchService jobLaunchService,
+            Job chequeJobThing,
+            @Value("${batch.intake.dir:uploads/remises/}") String intakeDir,
+            @Value("${batch.intake.poll-ms:1000}") long pollMs,
+            @Value("${batch.intake.quiet-seconds:2}") long quietSeconds,
+            @Value("${batch.intake.batch-window-ms:5000}") long batchWindowMs,
+            @Value("${batch.intake.max-batch-files:20}") int maxBatchFiles) {
+        File directory = new File(intakeDir).getAbsoluteFile();
+        directory.mkdirs();
+
+        ChainFileListFilter<File> filter = new ChainFileListFilter<>();
+        filter.addFilter(new SimplePatternFileListFilter("*.remise"));
+        filter.addFilter(new LastModifiedFileListFilter(quietSeconds));
+        AcceptOnceFileListFilter<File> acceptOnce = new AcceptOnceFileListFilter<>();
+        filter.addFilter(acceptOnce);
+
+        return IntegrationFlow
+                .from(Files.inboundAdapter(directory).filter(filter),
+                        e -> e.poller(Pollers.fixedDelay(pollMs).maxMessagesPerPoll(-1)))
+                .aggregate(a -> a
+                        .correlationStrategy(m -> "remises")
+                        .releaseStrategy(group -> group.size() >= maxBatchFiles)
+                        .groupTimeout(batchWindowMs)
+                        .sendPartialResultOnExpiry(true)
+                        .expireGroupsUponCompletion(true))
+                .handle(List.class, (files, headers) -> {
+                    launch(jobLaunchService, chequeJobThing, directory, files, acceptOnce);
+                    return null;
+                })
+                .get();
+    }
+
+    private void launch(JobLaunchService jobLaunchService, Job job, File directory, List<?> files,
+            AcceptOnceFileListFilter<File> acceptOnce) {
+        String remiseFiles = files.stream()
+                .map(file -> ((File) file).getName())
+                .collect(Collectors.joining(","));
+        try {
+            JobParameters jobParameters = new JobParametersBuilder()
+                    .addLong("startTime", System.currentTimeMillis())
+                    .addString("remisesDir", directory.getPath())
+                    .addString("remiseFiles", remiseFiles)
+                    .addString("outputDirectory", System.getProperty("user.dir") + "/output/")
+                    .toJobParameters();
+            jobLaunchService.launch(job, jobParameters);
+            System.out.println("Intake: queued " + job.getName() + " for " + remiseFiles);
+            return;
+        } catch (JobLaunchService.QueueFullException e) {
+            System.err.println("Intake: " + job.getName() + " not queued for " + remiseFiles + ": " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Intake: failed to launch " + job.getName() + " for " + remiseFiles + ": " + e.getMessage());
+        }
+        // Let the next poll offer these files again
+        files.forEach(file -> acceptOnce.remove((File) file));
+    }
+}
@@ -0,0 +1,129 @@
+package dz.eadn.thecloudbatch;
+
+import org.springframework.batch.item.file.LineMapper;
+import org.springframework.batch.item.file.transform.IncorrectTokenCountException;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Maps one line of the '.'-delimited remise / CRA layout to a {@link Cheque}
+ * without going through a {@code FieldSet} or bean reflection:
+ * rio.operation_type.beneficiary_rib.beneficiary_bank.cheque_number.sender_rib.sender_bank.amount
+ *
+ * The field boundaries are found in a single scan and numeric fields are parsed
+ * straight from the characters. The boundary buffers are reused between lines,
+ * so an instance must not be shared between threads (each step-scoped reader
+ * creates its own).
+ */
+public class RemiseLineMapper implements LineMapper<Cheque> {
+
+    private static final char DELIMITER = '.';
+    static final String[] FIELD_NAMES = {
+            "rio", "operation_type", "beneficiary_rib", "beneficiary_bank",
+            "cheque_number", "sender_rib", "sender_bank", "amount"};
+    private static final int FIELD_COUNT = FIELD_NAMES.length;
+
+    /** Header line of the layout, as written at the top of remise, LOT and CRA files. */
+    public static final String HEADER = String.join(String.valueOf(DELIMITER), FIELD_NAMES);
+
+    private static final int RIO = 0;
+    private static final int OPERATION_TYPE = 1;
+    private static final int BENEFICIARY_RIB = 2;
+    private static final int BENEFICIARY_BANK = 3;
+    private static final int CHEQUE_NUMBER = 4;
+    private static final int SENDER_RIB = 5;
+    private static final int SENDER_BANK = 6;
+    private static final int AMOUNT = 7;
+
+    // Field boundaries of the line being mapped, reused from one line to the next
+    private final int[] starts = new int[FIELD_COUNT];
+    private final int[] ends = new int[FIELD_COUNT];
+
+    @Override
+    public Cheque mapLine(String line, int lineNumber) throws Exception {
+        split(line);
+
+        Cheque cheque = new Cheque();
+        cheque.setRio(text(line, RIO));
+        cheque.setOperation_type(toShort(line, OPERATION_TYPE));
+        cheque.setBeneficiary_rib(text(line, BENEFICIARY_RIB));
+        cheque.setBeneficiary_bank(toShort(line, BENEFICIARY_BANK));
+        cheque.setCheque_number(number(line, CHEQUE_NUMBER));
+        cheque.setSender_rib(text(line, SENDER_RIB));
+        cheque.setSender_bank(toShort(line, SENDER_BANK));
+        cheque.setAmount(toInt(line, AMOUNT));
+        return cheque;
+    }
+
+    private void split(String line) {
+        int field = 0;
+        int start = 0;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) == DELIMITER) {
+                if (field < FIELD_COUNT) {
+                    starts[field] = start;
+                    ends[field] = i;
+                }
+                field++;
+                start = i + 1;
+            }
+        }
+        if (field != FIELD_COUNT - 1) {
+            throw new IncorrectTokenCountException(FIELD_COUNT, field + 1, line);
+        }
+        starts[field] = start;
+        ends[field] = length;
+    }
+
+    private String text(String line, int field) {
+        return line.substring(starts[field], ends[field]);
+    }
+
+    private short toShort(String line, int field) {
+        long value = number(line, field);
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+            throw outOfRange(line, field);
+        }
+        return (short) value;
+    }
+
+    private int toInt(String line, int field) {
+        long value = number(line, field);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw outOfRange(line, field);
+        }
+        return (int) value;
+    }
+
+    private long number(String line, int field) {
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = i < end && line.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            throw unparseable(line, field);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw unparseable(line, field);
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private NumberFormatException unparseable(String line, int field) {
+        return new NumberFormatException("Unparseable number '" + text(line, field)
+                + "' in field '" + FIELD_NAMES[field] + "'");
+    }
+
+    private NumberFormatException outOfRange(String line, int field) {
+        return new NumberFormatException("Value '" + text(line, field)
+                + "' out of range for field '" + FIELD_NAMES[field] + "'");
+    }
+}
@@ -0,0 +1,214 @@
+package dz.eadn.thecloudbatch;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Stores uploaded remise files in the upload directory, refusing the ones the
+ * batch job must not see.
+ *
+ * Each file is copied in a single pass that also computes its SHA-256 and
+ * checks every cheque line (eight '.'-separated fields, numeric amount) while
+ * totalling the lines and amounts. The copy goes to a hidden .part file; only
+ * once its hash is claimed in remise_uploads is it renamed to its real name,
+ * where chequeJob and the intake flow pick it up. Content already uploaded,
+ * under any name, and malformed files never get there. Neither does a file
+ * whose name is already pending or ingested (.DONE): it is refused and its
+ * claim released.
+ *
+ * A crash between the claim and the rename leaves the .part file behind; at
+ * startup the claims of those files are released, unless the file made it to
+ * the directory, and the .part files are deleted.
+ *
+ * The files of one upload are handled in parallel, batch.upload.concurrency at
+ * a time.
+ */
+@Component
+public class RemiseUploadService implements DisposableBean {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String CLAIM_SQL =
+            "INSERT INTO remise_uploads (content_hash, file_name, line_count, total_amount, uploaded_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String OWNER_SQL = "SELECT file_name FROM remise_uploads WHERE content_hash = ?";
+    private static final String RELEASE_SQL = "DELETE FROM remise_uploads WHERE content_hash = ?";
+    private static final String RELEASE_ORPHAN_SQL = "DELETE FROM remise_uploads WHERE content_hash = ? AND file_name = ?";
+    private static final String PART_SUFFIX = ".part";
+    private static final String DONE_SUFFIX = ".DONE";
+
+    public enum Outcome { UPLOADED, DUPLICATE, NAME_TAKEN, INVALID, FAILED }
+
+    public record UploadResult(String fileName, Outcome outcome, String contentHash,
+                               long lineCount, long totalAmount, String message) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ThreadPoolTaskExecutor executor;
+    private final Path uploadDirectory;
+
+    public RemiseUploadService(DataSource dataSource,
+            @Value("${batch.upload.concurrency:4}") int concurrency,
+            @Value("${batch.intake.dir:uploads/remises/}") String uploadDirectory) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.uploadDirectory = Path.of(uploadDirectory);
+        this.executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("remise-upload-");
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.initialize();
+    }
+
+    public List<UploadResult> store(MultipartFile[] files) throws IOException {
+        Files.createDirectories(uploadDirectory);
+        List<CompletableFuture<UploadResult>> pending = new ArrayList<>();
+        for (MultipartFile file : files) {
+            if (!file.isEmpty()) {
+                pending.add(CompletableFuture.supplyAsync(() -> store(file), executor));
+            }
+        }
+        List<UploadResult> results = new ArrayList<>();
+        for (CompletableFuture<UploadResult> result : pending) {
+            results.add(result.join());
+        }
+        return results;
+    }
+
+    private UploadResult store(MultipartFile file) {
+        String fileName = file.getOriginalFilename();
+        Path part = null;
+        try {
+            if (fileName == null || fileName.isBlank()) {
+                return new UploadResult(fileName, Outcome.FAILED, null, 0, 0, "No file name");
+            }
+            fileName = Path.of(fileName).getFileName().toString();
+            Path target = uploadDirectory.resolve(fileName);
+            if (nameTaken(target)) {
+                return new UploadResult(fileName, Outcome.NAME_TAKEN, null, 0, 0, "A file named " + fileName + " was already uploaded");
+            }
+            part = uploadDirectory.resolve("." + fileName + "." + Thread.currentThread().threadId() + PART_SUFFIX);
+            RemiseContentScanner scan;
+            try (InputStream in = file.getInputStream(); OutputStream out = Files.newOutputStream(part)) {
+                scan = copy(in, out);
+            }
+            String hash = scan.hash();
+            if (scan.error != null) {
+                return new UploadResult(fileName, Outcome.INVALID, hash, scan.lines, scan.total, scan.error);
+            }
+            if (scan.lines == 0) {
+                return new UploadResult(fileName, Outcome.INVALID, hash, 0, 0, "No cheque line");
+            }
+
+            try {
+                jdbcTemplate.update(CLAIM_SQL, hash, fileName, scan.lines, scan.total, Timestamp.valueOf(LocalDateTime.now()));
+            } catch (DuplicateKeyException e) {
+                List<String> owner = jdbcTemplate.queryForList(OWNER_SQL, String.class, hash);
+                return new UploadResult(fileName, Outcome.DUPLICATE, hash, scan.lines, scan.total,
+                        "Same content already uploaded" + (owner.isEmpty() ? "" : " as " + owner.get(0)));
+            }
+            try {
+                if (nameTaken(target)) {
+                    throw new FileAlreadyExistsException(target.toString());
+                }
+                // No REPLACE_EXISTING: a file of the same name that appeared meanwhile is refused, not overwritten.
+                // Within the directory this is still a single rename
+                Files.move(part, target);
+            } catch (FileAlreadyExistsException e) {
+                jdbcTemplate.update(RELEASE_SQL, hash);
+                return new UploadResult(fileName, Outcome.NAME_TAKEN, hash, scan.lines, scan.total,
+                        "A file named " + fileName + " was already uploaded");
+            } catch (IOException e) {
+                jdbcTemplate.update(RELEASE_SQL, hash);
+                throw e;
+            }
+            System.out.println("Uploaded " + fileName + ": " + scan.lines + " cheques, total " + scan.total);
+            return new UploadResult(fileName, Outcome.UPLOADED, hash, scan.lines, scan.total, null);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to upload " + fileName + ": " + e.getMessage());
+            return new UploadResult(fileName, Outcome.FAILED, null, 0, 0, e.getMessage());
+        } finally {
+            if (part != null) {
+                try {
+                    Files.deleteIfExists(part);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete " + part + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Pending under that name, or already ingested and renamed to .DONE
+    private static boolean nameTaken(Path target) {
+        return Files.exists(target) || Files.exists(target.resolveSibling(target.getFileName() + DONE_SUFFIX));
+    }
+
+    /**
+     * Releases the claims left by uploads that stopped between the claim and the
+     * rename: their .part file is still there and their file is not.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void releaseOrphanClaims() {
+        if (!Files.isDirectory(uploadDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(uploadDirectory, ".*" + PART_SUFFIX)) {
+            for (Path part : parts) {
+                // .<fileName>.<threadId>.part
+                String name = part.getFileName().toString();
+                String stem = name.substring(1, name.length() - PART_SUFFIX.length());
+                int dot = stem.lastIndexOf('.');
+                String fileName = dot > 0 ? stem.substring(0, dot) : stem;
+                try {
+                    if (!nameTaken(uploadDirectory.resolve(fileName))) {
+                        String hash = RemiseContentScanner.scan(part).hash();
+                        if (jdbcTemplate.update(RELEASE_ORPHAN_SQL, hash, fileName) > 0) {
+                            System.out.println("Released the claim of interrupted upload " + fileName);
+                        }
+                    }
+                    Files.delete(part);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Failed to clean up " + part + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list " + uploadDirectory + ": " + e.getMessage());
+        }
+    }
+
+    private static RemiseContentScanner copy(InputStream in, OutputStream out) throws IOException {
+        RemiseContentScanner scanner = new RemiseContentScanner();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            scanner.scan(buffer, read);
+            out.write(buffer, 0, read);
+        }
+        scanner.finish();
+        return scanner;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
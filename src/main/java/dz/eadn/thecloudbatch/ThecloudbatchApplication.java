@@ -3,10 +3,12 @@ package dz.eadn.thecloudbatch;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.task.configuration.EnableTask;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 @SpringBootApplication
 @EnableTask
+@EnableScheduling
 public class ThecloudbatchApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,159 @@
+package dz.eadn.thecloudbatch;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Watches the UAP response directory (ORD files) with a single WatchService
+ * thread and completes the futures of the jobs waiting for those files.
+ *
+ * A job waits for the ORD files it generated, by name; files already in the
+ * directory when it starts waiting count as well. The future completes when
+ * all of them have arrived, or exceptionally with a TimeoutException.
+ */
+@Component
+public class UapResponseWatcher implements DisposableBean {
+
+    private final Path directory;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    // Guarded by itself; registration and dispatch hold the lock so no arrival is missed
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    public UapResponseWatcher(@Value("${batch.uap.ord-dir:#{systemProperties['user.dir'] + '/ord'}}") String ordDirectory)
+            throws IOException {
+        this.directory = Files.createDirectories(Path.of(ordDirectory));
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "uap-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public CompletableFuture<List<Path>> awaitResponses(Collection<String> ordFileNames, Duration timeout) {
+        Waiter waiter = new Waiter(ordFileNames);
+        boolean done;
+        synchronized (waiters) {
+            try (DirectoryStream<Path> present = Files.newDirectoryStream(directory, "*.ORD")) {
+                for (Path file : present) {
+                    waiter.arrived(file);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to list " + directory + ": " + e.getMessage());
+            }
+            done = waiter.remaining.isEmpty();
+            if (!done) {
+                waiters.add(waiter);
+            }
+        }
+        if (done) {
+            waiter.complete();
+            return waiter.future;
+        }
+        waiter.future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((files, error) -> {
+                    synchronized (waiters) {
+                        waiters.remove(waiter);
+                    }
+                });
+        return waiter.future;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                    } else {
+                        dispatch(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    System.err.println("UAP watcher: " + directory + " is no longer accessible");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private void rescan() {
+        try (DirectoryStream<Path> present = Files.newDirectoryStream(directory, "*.ORD")) {
+            for (Path file : present) {
+                dispatch(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private void dispatch(Path file) {
+        if (!file.getFileName().toString().endsWith(".ORD")) {
+            return;
+        }
+        List<Waiter> done = new ArrayList<>();
+        synchronized (waiters) {
+            for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                waiter.arrived(file);
+                if (waiter.remaining.isEmpty()) {
+                    it.remove();
+                    done.add(waiter);
+                }
+            }
+        }
+        // Outside the lock: completing runs the waiting job's callbacks
+        done.forEach(Waiter::complete);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+
+    private static final class Waiter {
+        final Set<String> remaining;
+        final List<Path> arrived = new ArrayList<>();
+        final CompletableFuture<List<Path>> future = new CompletableFuture<>();
+
+        Waiter(Collection<String> ordFileNames) {
+            this.remaining = new HashSet<>(ordFileNames);
+        }
+
+        void arrived(Path file) {
+            if (remaining.remove(file.getFileName().toString())) {
+                arrived.add(file);
+            }
+        }
+
+        void complete() {
+            future.complete(List.copyOf(arrived));
+        }
+    }
+}
@@ -1,45 +1,86 @@
 package dz.eadn.thecloudbatch.controller;
 
 import org.springframework.batch.core.*;
-import org.springframework.batch.core.launch.JobLauncher;
-import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 
-import dz.eadn.thecloudbatch.model.Cheque;
+import dz.eadn.thecloudbatch.ChequeStatusCounters;
+import dz.eadn.thecloudbatch.JobArtifactRegistry;
+import dz.eadn.thecloudbatch.JobLaunchService;
+import dz.eadn.thecloudbatch.JobProgressBroadcaster;
+import dz.eadn.thecloudbatch.RemiseCatalog;
+import dz.eadn.thecloudbatch.RemiseFileViewer;
+import dz.eadn.thecloudbatch.RemiseUploadService;
+import dz.eadn.thecloudbatch.UapResponseWatcher;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.*;
 import java.nio.file.*;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 @RestController
 public class IntegrateJobController {
 
-    private static final String UPLOAD_BASE_DIR = "uploads/remises/";
     private static final String PROJECT_ROOT = System.getProperty("user.dir");
     private static final String OUTPUT_DIR = PROJECT_ROOT + "/output/";
     private static final String ORD_DIR = PROJECT_ROOT + "/ord/";
     private static final String CRL_DIR = PROJECT_ROOT + "/crl/";
+    private static final Duration UAP_TIMEOUT = Duration.ofMinutes(2);
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final int DEFAULT_VIEW_LINES = 1000;
+    private static final int MAX_VIEW_LINES = 10000;
+    private static final long MAX_VIEW_BYTES = 4 * 1024 * 1024;
 
-    private JobLauncher jobLauncher;
+    private JobLaunchService jobLaunchService;
+    private UapResponseWatcher uapResponseWatcher;
+    private JobProgressBroadcaster jobProgressBroadcaster;
     private Job chequeJobThing;
     private Job craJob;
-    private JobRepository jobRepository;
+    private JobArtifactRegistry jobArtifactRegistry;
     private JdbcTemplate jdbcTemplate; // Add this for database queries
+    private ObjectMapper objectMapper;
+    private ChequeStatusCounters chequeStatusCounters;
+    private RemiseUploadService remiseUploadService;
+    private RemiseFileViewer remiseFileViewer;
+    private RemiseCatalog remiseCatalog;
+    // batch.intake.dir: where uploads land, and the only directory remises are served from
+    private final Path uploadDirectory;
     
     // Store job execution details for monitoring
     private final Map<String, JobStatusInfo> jobStatusMap = new ConcurrentHashMap<>();
 
-    public IntegrateJobController(JobLauncher jobLauncher, Job chequeJobThing, JobRepository jobRepository, Job craJob, JdbcTemplate jdbcTemplate) {
-        this.jobLauncher = jobLauncher;
+    public IntegrateJobController(JobLaunchService jobLaunchService, UapResponseWatcher uapResponseWatcher, JobProgressBroadcaster jobProgressBroadcaster, Job chequeJobThing, JobArtifactRegistry jobArtifactRegistry, Job craJob, JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, ChequeStatusCounters chequeStatusCounters, RemiseUploadService remiseUploadService, RemiseFileViewer remiseFileViewer, RemiseCatalog remiseCatalog, @Value("${batch.intake.dir:uploads/remises/}") String uploadDirectory) {
+        this.jobLaunchService = jobLaunchService;
+        this.uapResponseWatcher = uapResponseWatcher;
+        this.jobProgressBroadcaster = jobProgressBroadcaster;
         this.chequeJobThing = chequeJobThing;
-        this.jobRepository = jobRepository;
+        this.jobArtifactRegistry = jobArtifactRegistry;
         this.craJob = craJob;
         this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.chequeStatusCounters = chequeStatusCounters;
+        this.remiseUploadService = remiseUploadService;
+        this.remiseFileViewer = remiseFileViewer;
+        this.remiseCatalog = remiseCatalog;
+        this.uploadDirectory = Paths.get(uploadDirectory).toAbsolutePath().normalize();
         
         // Ensure directories exist
         createDirectories();
@@ -47,7 +88,7 @@ public class IntegrateJobController {
 
     private void createDirectories() {
         try {
-            Files.createDirectories(Paths.get(UPLOAD_BASE_DIR));
+            Files.createDirectories(uploadDirectory);
             Files.createDirectories(Paths.get(OUTPUT_DIR));
             Files.createDirectories(Paths.get(ORD_DIR));
             Files.createDirectories(Paths.get(CRL_DIR));
@@ -56,76 +97,140 @@ public class IntegrateJobController {
         }
     }
 
+    /**
+     * Without a status: the number of cheques in each status. With one: a page
+     * of its cheques, newest first. Pages are keyset-paginated on the id: pass
+     * the nextAfterId of a page as afterId to get the next one; it is null on
+     * the last page. The rows are written to the response as they are read.
+     */
     @GetMapping("/api/cheques/by-status")
-    public ResponseEntity<Map<String, Object>> getChequesByStatus(@RequestParam(required = false) String status) {
+    public ResponseEntity<StreamingResponseBody> getChequesByStatus(@RequestParam(required = false) String status,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
         try {
             Map<String, Object> response = new HashMap<>();
             
             if (status == null || status.isEmpty()) {
-                // Return counts for all statuses
-                String countSql = """
-                    SELECT status, COUNT(*) as count 
-                    FROM cheques 
-                    GROUP BY status
-                    ORDER BY 
-                        CASE status 
-                            WHEN 'to be integrated' THEN 1
-                            WHEN 'integrated' THEN 2
-                            WHEN 'processed' THEN 3
-                            ELSE 4
-                        END
-                    """;
-                
-                List<Map<String, Object>> statusCounts = jdbcTemplate.queryForList(countSql);
-                response.put("statusCounts", statusCounts);
-                
-                // Also return total count
-                String totalSql = "SELECT COUNT(*) FROM cheques";
-                Integer totalCount = jdbcTemplate.queryForObject(totalSql, Integer.class);
-                response.put("totalCount", totalCount != null ? totalCount : 0);
-                
-            } else {
-                // Return cheques for specific status
-                String sql = "SELECT * FROM cheques WHERE status = ? ORDER BY id DESC";
-                List<Cheque> cheques = jdbcTemplate.query(sql, new BeanPropertyRowMapper<>(Cheque.class), status);
+                // Kept up to date by the writers; no query
+                response.put("statusCounts", chequeStatusCounters.snapshot());
+                response.put("totalCount", chequeStatusCounters.total());
                 
-                response.put("cheques", cheques);
-                response.put("status", status);
-                response.put("count", cheques.size());
+                return json(HttpStatus.OK, response);
             }
-            
-            return ResponseEntity.ok(response);
+
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                response.put("error", "limit must be between 1 and " + MAX_PAGE_SIZE);
+                return json(HttpStatus.BAD_REQUEST, response);
+            }
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> streamCheques(out, status, afterId, limit));
             
         } catch (Exception e) {
             Map<String, Object> errorResponse = new HashMap<>();
             errorResponse.put("error", "Failed to fetch cheques: " + e.getMessage());
-            return ResponseEntity.internalServerError().body(errorResponse);
+            return json(HttpStatus.INTERNAL_SERVER_ERROR, errorResponse);
+        }
+    }
+
+    // Walks the (status, id) index backwards from afterId; one extra row tells whether a next page exists
+    private void streamCheques(OutputStream out, String status, Long afterId, int limit) throws IOException {
+        String sql = "SELECT id, cheque_number, rio, operation_type, beneficiary_rib, beneficiary_bank, "
+                + "sender_rib, sender_bank, amount, status FROM cheques WHERE status = ?"
+                + (afterId != null ? " AND id < ?" : "")
+                + " ORDER BY id DESC FETCH FIRST ? ROWS ONLY";
+
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(StreamUtils.nonClosing(out))) {
+            json.writeStartObject();
+            json.writeStringField("status", status);
+            json.writeArrayFieldStart("cheques");
+            int[] count = {0};
+            long[] lastId = {0};
+            boolean[] more = {false};
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(sql);
+                int index = 1;
+                ps.setString(index++, status);
+                if (afterId != null) {
+                    ps.setLong(index++, afterId);
+                }
+                ps.setInt(index, limit + 1);
+                ps.setFetchSize(Math.min(limit + 1, STREAM_FETCH_SIZE));
+                return ps;
+            }, (ResultSet rs) -> {
+                if (count[0] == limit) {
+                    more[0] = true;
+                    return;
+                }
+                try {
+                    json.writeStartObject();
+                    json.writeNumberField("id", rs.getLong("id"));
+                    json.writeNumberField("cheque_number", rs.getLong("cheque_number"));
+                    json.writeStringField("rio", rs.getString("rio"));
+                    json.writeNumberField("operation_type", rs.getShort("operation_type"));
+                    json.writeStringField("beneficiary_rib", rs.getString("beneficiary_rib"));
+                    json.writeNumberField("beneficiary_bank", rs.getShort("beneficiary_bank"));
+                    json.writeStringField("sender_rib", rs.getString("sender_rib"));
+                    json.writeNumberField("sender_bank", rs.getShort("sender_bank"));
+                    json.writeNumberField("amount", rs.getInt("amount"));
+                    json.writeStringField("status", rs.getString("status"));
+                    json.writeEndObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                lastId[0] = rs.getLong("id");
+                count[0]++;
+            });
+            json.writeEndArray();
+            json.writeNumberField("count", count[0]);
+            if (more[0]) {
+                json.writeNumberField("nextAfterId", lastId[0]);
+            } else {
+                json.writeNullField("nextAfterId");
+            }
+            json.writeEndObject();
         }
     }
 
+    private ResponseEntity<StreamingResponseBody> json(HttpStatus httpStatus, Map<String, Object> body) {
+        return ResponseEntity.status(httpStatus)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(StreamUtils.nonClosing(out), body));
+    }
+
+    /**
+     * Stores the uploaded remises; see {@link RemiseUploadService}. Each file
+     * gets its own outcome (UPLOADED, DUPLICATE, NAME_TAKEN, INVALID or FAILED) in "files";
+     * only the UPLOADED ones reach the upload directory.
+     */
     @PostMapping("/api/upload/remises")
-    public ResponseEntity<Map<String, String>> uploadRemises(@RequestParam MultipartFile[] files) {
-        Map<String, String> response = new HashMap<>();
+    public ResponseEntity<Map<String, Object>> uploadRemises(@RequestParam MultipartFile[] files) {
+        Map<String, Object> response = new HashMap<>();
         List<String> uploadedFiles = new ArrayList<>();
+        List<Map<String, Object>> results = new ArrayList<>();
         
         try {
-            Path uploadPath = Paths.get(UPLOAD_BASE_DIR);
-            Files.createDirectories(uploadPath);
-
-            for (MultipartFile file : files) {
-                if (!file.isEmpty()) {
-                    String originalFileName = file.getOriginalFilename();
-                    
-                    Path filePath = uploadPath.resolve(originalFileName);
-                    Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-                    uploadedFiles.add(originalFileName);
+            for (RemiseUploadService.UploadResult result : remiseUploadService.store(files)) {
+                Map<String, Object> fileResult = new HashMap<>();
+                fileResult.put("fileName", result.fileName());
+                fileResult.put("outcome", result.outcome().toString());
+                fileResult.put("contentHash", result.contentHash());
+                fileResult.put("lineCount", result.lineCount());
+                fileResult.put("totalAmount", result.totalAmount());
+                if (result.message() != null) {
+                    fileResult.put("message", result.message());
+                }
+                results.add(fileResult);
+                if (result.outcome() == RemiseUploadService.Outcome.UPLOADED) {
+                    uploadedFiles.add(result.fileName());
                 }
             }
             
-            response.put("status", "success");
+            response.put("status", uploadedFiles.size() == results.size() ? "success" : uploadedFiles.isEmpty() ? "rejected" : "partial");
             response.put("filesCount", String.valueOf(files.length));
             response.put("uploadedFiles", String.join(", ", uploadedFiles));
-            response.put("directoryPath", uploadPath.toAbsolutePath().toString());
+            response.put("files", results);
+            response.put("directoryPath", uploadDirectory.toString());
             return ResponseEntity.ok(response);
             
         } catch (IOException e) {
@@ -135,48 +240,90 @@ public class IntegrateJobController {
         }
     }
 
+    /**
+     * The remises of the catalog, most recent name first, filtered on state
+     * (PENDING by default, INGESTED or ALL), operationType, bank, rib and the
+     * [from, to) range of their timestamp (yyyy-MM-ddTHH:mm). One page of
+     * limit entries from offset; X-Total-Count holds the number of matches.
+     */
     @GetMapping("/api/remises/list")
-    public ResponseEntity<List<Map<String, String>>> listRemises() {
-        List<Map<String, String>> remises = new ArrayList<>();
-        File baseDir = new File(UPLOAD_BASE_DIR);
-        
-        if (baseDir.exists() && baseDir.isDirectory()) {
-            // Get all .remise files directly from the base directory (excluding .DONE files)
-            File[] remiseFiles = baseDir.listFiles((dir, name) -> 
-                name.endsWith(".remise") && !name.endsWith(".remise.DONE"));
-            
-            if (remiseFiles != null) {
-                for (File file : remiseFiles) {
-                    Map<String, String> info = new HashMap<>();
-                    info.put("fileName", file.getName());
-                    info.put("filePath", file.getAbsolutePath());
-                    info.put("fileSize", String.valueOf(file.length()));
-                    info.put("lastModified", String.valueOf(file.lastModified()));
-                    
-                    // Extract timestamp from filename if it follows the new naming convention
-                    String fileName = file.getName();
-                    if (fileName.contains(".") && fileName.endsWith(".remise")) {
-                        String[] parts = fileName.split("\\.");
-                        if (parts.length >= 2) {
-                            String timestamp = parts[parts.length - 2];
-                            info.put("timestamp", timestamp);
-                        }
-                    }
-                    
-                    remises.add(info);
-                }
-            }
+    public ResponseEntity<List<Map<String, Object>>> listRemises(
+            @RequestParam(defaultValue = "PENDING") String state,
+            @RequestParam(required = false) String operationType,
+            @RequestParam(required = false) String bank,
+            @RequestParam(required = false) String rib,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+        RemiseCatalog.State wanted;
+        try {
+            wanted = "ALL".equalsIgnoreCase(state) ? null : RemiseCatalog.State.valueOf(state.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         }
-        
-        // Sort by filename or timestamp (most recent first)
-        remises.sort((a, b) -> b.get("fileName").compareTo(a.get("fileName")));
-        
-        return ResponseEntity.ok(remises);
+        if (offset < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        RemiseCatalog.Page page = remiseCatalog.list(
+                new RemiseCatalog.Filter(wanted, operationType, bank, rib, from, to), offset, limit);
+        List<Map<String, Object>> remises = new ArrayList<>();
+        for (RemiseCatalog.Entry entry : page.entries()) {
+            Map<String, Object> info = new HashMap<>();
+            info.put("fileName", entry.fileName());
+            info.put("filePath", entry.path().toString());
+            info.put("fileSize", String.valueOf(entry.size()));
+            info.put("lastModified", String.valueOf(entry.lastModified()));
+            info.put("timestamp", entry.timestamp());
+            info.put("date", entry.date() != null ? entry.date().toString() : null);
+            info.put("operationType", entry.operationType());
+            info.put("beneficiaryBank", entry.beneficiaryBank());
+            info.put("beneficiaryRib", entry.beneficiaryRib());
+            info.put("lineCount", entry.lineCount());
+            info.put("totalAmount", entry.totalAmount());
+            info.put("state", entry.state().toString());
+            remises.add(info);
+        }
+        return ResponseEntity.ok()
+                .header("X-Total-Count", String.valueOf(page.total()))
+                .body(remises);
     }
 
+    /**
+     * A slice of an uploaded remise as text: lines [fromLine, fromLine + lines),
+     * line 0 being the header, or bytes [offset, offset + length) when offset is
+     * given. The X-Total-Lines, X-Line-Range and X-Byte-Range headers tell where
+     * the slice sits in the file.
+     */
     @GetMapping("/api/remises/file")
-    public ResponseEntity<String> getRemiseFile(@RequestParam("path") String path) throws IOException {
-        return ResponseEntity.ok(Files.readString(Paths.get(path)));
+    public ResponseEntity<StreamingResponseBody> getRemiseFile(@RequestParam("path") String path,
+            @RequestParam(defaultValue = "0") long fromLine,
+            @RequestParam(defaultValue = "" + DEFAULT_VIEW_LINES) int lines,
+            @RequestParam(required = false) Long offset,
+            @RequestParam(defaultValue = "" + MAX_VIEW_BYTES) long length) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        if (!file.startsWith(uploadDirectory) || !Files.isRegularFile(file)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (fromLine < 0 || lines < 1 || lines > MAX_VIEW_LINES
+                || (offset != null && (offset < 0 || length < 1 || length > MAX_VIEW_BYTES))) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN);
+        RemiseFileViewer.Range range;
+        if (offset != null) {
+            range = remiseFileViewer.byteRange(file, offset, length);
+        } else {
+            range = remiseFileViewer.lineRange(file, fromLine, lines);
+            response.header("X-Total-Lines", String.valueOf(range.totalLines()))
+                    .header("X-Line-Range", range.firstLine() + "-" + (range.firstLine() + range.lineCount()));
+        }
+        return response
+                .header("X-Byte-Range", range.start() + "-" + range.end() + "/" + range.fileSize())
+                .contentLength(range.length())
+                .body(out -> remiseFileViewer.transfer(file, range, out));
     }
 
     @PostMapping("/api/job/start")
@@ -193,21 +340,31 @@ public class IntegrateJobController {
                     .addString("outputDirectory", OUTPUT_DIR)
                     .toJobParameters();
             
-            JobExecution jobExecution = jobLauncher.run(chequeJobThing, jobParameters);
+            JobStatusInfo jobInfo = new JobStatusInfo();
+            jobInfo.remisesDir = remisesDir;
+            jobInfo.startTime = System.currentTimeMillis();
+
+            // Returns as soon as the job is queued; it runs on the chequeJob launch pool and
+            // starts waiting for the UAP response when it finishes
+            JobExecution jobExecution;
+            try {
+                jobExecution = jobLaunchService.launch(chequeJobThing, jobParameters,
+                        finished -> awaitUapResponse(jobInfo, finished));
+            } catch (JobLaunchService.QueueFullException e) {
+                response.put("success", false);
+                response.put("executionId", e.getExecution().getId());
+                response.put("message", "Job could not be queued: " + e.getMessage());
+                return ResponseEntity.status(503).body(response);
+            }
             String jobId = jobExecution.getJobId().toString();
             
             // Initialize job status tracking
-            JobStatusInfo jobInfo = new JobStatusInfo();
             jobInfo.jobExecution = jobExecution;
-            jobInfo.remisesDir = remisesDir;
-            jobInfo.startTime = System.currentTimeMillis();
             jobStatusMap.put(jobId, jobInfo);
             
-            // Start UAP monitoring in a separate thread
-            startUAPMonitoring(jobId);
-            
             response.put("success", true);
             response.put("jobId", jobId);
+            response.put("executionId", jobExecution.getId());
             response.put("message", "Job started successfully");
             
         } catch (Exception e) {
@@ -229,69 +386,31 @@ public class IntegrateJobController {
         }
         
         try {
-            JobExecution jobExecution = jobRepository.getLastJobExecution(
-                chequeJobThing.getName(), 
-                jobInfo.jobExecution.getJobParameters()
-            );
-            
-            if (jobExecution != null) {
-                // Check DB Step (first step)
-                StepExecution dbStep = jobExecution.getStepExecutions().stream()
-                    .filter(step -> "dbStep".equals(step.getStepName()))
-                    .findFirst()
-                    .orElse(null);
-                
-                if (dbStep != null) {
-                    response.put("dbStepStatus", dbStep.getStatus().toString());
-                    if (dbStep.getStatus() == BatchStatus.COMPLETED) {
-                        Map<String, Object> dbDetails = new HashMap<>();
-                        dbDetails.put("recordsProcessed", dbStep.getReadCount());
-                        dbDetails.put("filesMarked", "N/A"); // This would be tracked separately
-                        response.put("dbStepDetails", dbDetails);
-                    } else if (dbStep.getStatus() == BatchStatus.FAILED) {
-                        response.put("dbStepError", getStepErrorMessage(dbStep));
-                    }
+            // Recorded by the job's own listeners and writers: no job repository query, no directory listing
+            JobArtifactRegistry.StepSnapshot dbStep = jobArtifactRegistry.step(jobId, "dbStep");
+            if (dbStep != null) {
+                response.put("dbStepStatus", dbStep.status());
+                if (BatchStatus.COMPLETED.toString().equals(dbStep.status())) {
+                    Map<String, Object> dbDetails = new HashMap<>();
+                    dbDetails.put("recordsProcessed", dbStep.readCount());
+                    dbDetails.put("filesMarked", "N/A"); // This would be tracked separately
+                    response.put("dbStepDetails", dbDetails);
+                } else if (dbStep.error() != null) {
+                    response.put("dbStepError", dbStep.error());
                 }
-                
-                // Check File Step (third step)
-                StepExecution fileStep = jobExecution.getStepExecutions().stream()
-                    .filter(step -> "fileStep".equals(step.getStepName()))
-                    .findFirst()
-                    .orElse(null);
-                
-                if (fileStep != null) {
-                    response.put("fileStepStatus", fileStep.getStatus().toString());
-                    if (fileStep.getStatus() == BatchStatus.COMPLETED) {
-                        Map<String, Object> fileDetails = new HashMap<>();
-                        // Count generated files
-                        File outputDir = new File(OUTPUT_DIR);
-                        File[] lotFiles = outputDir.listFiles((dir, name) -> name.endsWith(".LOT"));
-                        File[] ordFiles = outputDir.listFiles((dir, name) -> name.endsWith(".ORD"));
-                        
-                        List<String> lotFileNames = new ArrayList<>();
-                        List<String> ordFileNames = new ArrayList<>();
-                        
-                        if (lotFiles != null) {
-                            for (File f : lotFiles) {
-                                lotFileNames.add(f.getName());
-                            }
-                        }
-                        if (ordFiles != null) {
-                            for (File f : ordFiles) {
-                                ordFileNames.add(f.getName());
-                            }
-                        }
-                        
-                        fileDetails.put("lotFiles", lotFileNames);
-                        fileDetails.put("ordFiles", ordFileNames);
-                        fileDetails.put("outputDir", OUTPUT_DIR);
-                        response.put("fileStepDetails", fileDetails);
-                        
-                        // Update UAP monitoring info
-                        jobInfo.ordFiles = ordFileNames;
-                    } else if (fileStep.getStatus() == BatchStatus.FAILED) {
-                        response.put("fileStepError", getStepErrorMessage(fileStep));
-                    }
+            }
+
+            JobArtifactRegistry.StepSnapshot fileStep = jobArtifactRegistry.step(jobId, "fileStep");
+            if (fileStep != null) {
+                response.put("fileStepStatus", fileStep.status());
+                if (BatchStatus.COMPLETED.toString().equals(fileStep.status())) {
+                    Map<String, Object> fileDetails = new HashMap<>();
+                    fileDetails.put("lotFiles", jobArtifactRegistry.artifacts(jobId, "LOT"));
+                    fileDetails.put("ordFiles", jobArtifactRegistry.artifacts(jobId, "ORD"));
+                    fileDetails.put("outputDir", OUTPUT_DIR);
+                    response.put("fileStepDetails", fileDetails);
+                } else if (fileStep.error() != null) {
+                    response.put("fileStepError", fileStep.error());
                 }
             }
             
@@ -313,66 +432,71 @@ public class IntegrateJobController {
         return ResponseEntity.ok(response);
     }
 
-    private String getStepErrorMessage(StepExecution stepExecution) {
-        List<Throwable> failureExceptions = stepExecution.getFailureExceptions();
-        if (!failureExceptions.isEmpty()) {
-            return failureExceptions.get(0).getMessage();
+    /**
+     * Pushes the same information as /api/job/status/{jobId}, as "progress"
+     * events, whenever a step, a chunk or the UAP state changes.
+     */
+    @GetMapping(value = "/api/job/events/{jobId}", produces = "text/event-stream")
+    public SseEmitter streamJobEvents(@PathVariable String jobId) {
+        return jobProgressBroadcaster.subscribe(jobId);
+    }
+
+    /**
+     * Called once chequeJob has finished: waits, without holding a thread, for
+     * the UAP to answer each ORD file the job generated, then writes the CRL files.
+     */
+    private void awaitUapResponse(JobStatusInfo jobInfo, JobExecution jobExecution) {
+        String jobId = jobExecution.getJobId().toString();
+        jobProgressBroadcaster.update(jobId, state -> state.put("jobStatus", jobExecution.getStatus().toString()));
+        if (jobExecution.getStatus() != BatchStatus.COMPLETED) {
+            jobInfo.uapError = "Job did not complete (" + jobExecution.getStatus() + ")";
+            jobInfo.uapStatus = "FAILED";
+            publishUap(jobId, jobInfo);
+            return;
         }
-        return "Unknown error occurred";
+
+        // Registered by ordFileStep, which writes the run's single ORD file
+        List<String> ordFiles = jobArtifactRegistry.artifacts(jobId, "ORD");
+        jobInfo.ordFiles = ordFiles;
+        if (ordFiles.isEmpty()) {
+            jobInfo.uapError = "Job generated no ORD file";
+            jobInfo.uapStatus = "FAILED";
+            publishUap(jobId, jobInfo);
+            return;
+        }
+        jobInfo.uapStatus = "WAITING";
+        publishUap(jobId, jobInfo);
+
+        uapResponseWatcher.awaitResponses(ordFiles, UAP_TIMEOUT).whenComplete((responses, error) -> {
+            if (error != null) {
+                jobInfo.uapError = "UAP did not respond within " + UAP_TIMEOUT.toMinutes() + " minutes";
+                jobInfo.uapStatus = "FAILED";
+                publishUap(jobId, jobInfo);
+                return;
+            }
+            // UAP responded, generate CRL files
+            List<String> crlFiles = generateCRLFiles(responses.stream().map(Path::toFile).toArray(File[]::new));
+            Map<String, Object> details = new HashMap<>();
+            details.put("crlFiles", crlFiles);
+            jobInfo.uapDetails = details;
+            jobInfo.uapStatus = "COMPLETED";
+            publishUap(jobId, jobInfo);
+        });
     }
 
-    private void startUAPMonitoring(String jobId) {
-        Thread uapMonitorThread = new Thread(() -> {
-            JobStatusInfo jobInfo = jobStatusMap.get(jobId);
-            if (jobInfo == null) return;
-            
-            // Wait for job to complete first
-            while (jobInfo.ordFiles == null || jobInfo.ordFiles.isEmpty()) {
-                try {
-                    Thread.sleep(5000);
-                    if (System.currentTimeMillis() - jobInfo.startTime > 300000) { // 5 minutes timeout
-                        jobInfo.uapStatus = "FAILED";
-                        jobInfo.uapError = "Job did not complete within expected timeframe";
-                        return;
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    return;
-                }
+    private void publishUap(String jobId, JobStatusInfo jobInfo) {
+        jobProgressBroadcaster.update(jobId, state -> {
+            state.put("uapStatus", jobInfo.uapStatus);
+            if (jobInfo.ordFiles != null) {
+                state.put("uapOrdFiles", jobInfo.ordFiles);
             }
-            
-            // Now monitor for UAP response
-            long uapStartTime = System.currentTimeMillis();
-            while (System.currentTimeMillis() - uapStartTime < 120000) { // 2 minutes timeout for UAP
-                try {
-                    // Check if new ORD files appeared (UAP response)
-                    File ordDir = new File(ORD_DIR);
-                    File[] newOrdFiles = ordDir.listFiles((dir, name) -> name.endsWith(".ORD"));
-                    
-                    if (newOrdFiles != null && newOrdFiles.length > 0) {
-                        // UAP responded, generate CRL files
-                        List<String> crlFiles = generateCRLFiles(newOrdFiles);
-                        
-                        jobInfo.uapStatus = "COMPLETED";
-                        jobInfo.uapDetails = new HashMap<>();
-                        jobInfo.uapDetails.put("crlFiles", crlFiles);
-                        return;
-                    }
-                    
-                    Thread.sleep(5000); // Check every 5 seconds
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    return;
-                }
+            if (jobInfo.uapDetails != null) {
+                state.put("uapDetails", jobInfo.uapDetails);
+            }
+            if (jobInfo.uapError != null) {
+                state.put("uapError", jobInfo.uapError);
             }
-            
-            // Timeout reached
-            jobInfo.uapStatus = "FAILED";
-            jobInfo.uapError = "UAP did not respond within 2 minutes";
         });
-        
-        uapMonitorThread.setDaemon(true);
-        uapMonitorThread.start();
     }
 
     private List<String> generateCRLFiles(File[] ordFiles) {
@@ -417,9 +541,16 @@ public class IntegrateJobController {
                     .addLong("timestamp", System.currentTimeMillis())
                     .toJobParameters();
             
-            JobExecution execution = jobLauncher.run(craJob, jobParameters);
-            
             Map<String, Object> response = new HashMap<>();
+            JobExecution execution;
+            try {
+                execution = jobLaunchService.launch(craJob, jobParameters);
+            } catch (JobLaunchService.QueueFullException e) {
+                response.put("success", false);
+                response.put("jobId", e.getExecution().getId());
+                response.put("message", "CRA job could not be queued: " + e.getMessage());
+                return ResponseEntity.status(503).body(response);
+            }
             response.put("success", true);
             response.put("jobId", execution.getId());
             response.put("message", "CRA job started successfully");
@@ -435,12 +566,13 @@ public class IntegrateJobController {
 
     // Inner class to track job status
     private static class JobStatusInfo {
-        JobExecution jobExecution;
+        volatile JobExecution jobExecution;
         String remisesDir;
         long startTime;
-        List<String> ordFiles;
-        String uapStatus;
-        Map<String, Object> uapDetails;
-        String uapError;
+        // Set from the job and UAP watcher threads, read by the status requests
+        volatile List<String> ordFiles;
+        volatile String uapStatus;
+        volatile Map<String, Object> uapDetails;
+        volatile String uapError;
     }
 }
\ No newline at end of file
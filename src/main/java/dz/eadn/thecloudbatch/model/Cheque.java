@@ -3,7 +3,12 @@ package dz.eadn.thecloudbatch.model;
 import jakarta.persistence.*;
 
 @Entity
-@Table(name = "cheques")
+@Table(name = "cheques", indexes = {
+        // Serves the pending-bank scan of BankRangePartitioner and the per-range LOT readers
+        @Index(name = "idx_cheques_status_bank", columnList = "status, beneficiary_bank, operation_type, id"),
+        // Serves the keyset-paginated listing of /api/cheques/by-status (status = ? AND id < ? ORDER BY id DESC)
+        @Index(name = "idx_cheques_status_id", columnList = "status, id")
+})
 public class Cheque {
 
     @Id
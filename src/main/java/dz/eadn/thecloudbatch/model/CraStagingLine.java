@@ -0,0 +1,75 @@
+package dz.eadn.thecloudbatch.model;
+
+import jakarta.persistence.*;
+
+/**
+ * One CRA line bulk-loaded for set-based reconciliation. Rows belong to the step
+ * execution that loaded them (run_id) and are removed when it finishes.
+ */
+@Entity
+@Table(name = "cra_staging", indexes = {
+        @Index(name = "idx_cra_staging_run", columnList = "run_id, cheque_number")
+})
+public class CraStagingLine {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "run_id", nullable = false)
+    private long run_id;
+
+    @Column(name = "file_name", nullable = false)
+    private String file_name;
+
+    @Column(name = "line_number", nullable = false)
+    private int line_number;
+
+    @Column(name = "cheque_number", nullable = false)
+    private long cheque_number;
+
+    @Column(name = "rio", nullable = false)
+    private String rio;
+
+    @Column(name = "operation_type", nullable = false)
+    private short operation_type;
+
+    @Column(name = "beneficiary_rib", nullable = false)
+    private String beneficiary_rib;
+
+    @Column(name = "beneficiary_bank", nullable = false)
+    private short beneficiary_bank;
+
+    @Column(name = "sender_rib", nullable = false)
+    private String sender_rib;
+
+    @Column(name = "sender_bank", nullable = false)
+    private short sender_bank;
+
+    @Column(name = "amount", nullable = false)
+    private int amount;
+
+    // Set to the matching cheque during reconciliation, null for rejected lines
+    @Column(name = "cheque_id")
+    private Long cheque_id;
+
+    public Long getId() {
+        return id;
+    }
+
+    public long getRun_id() {
+        return run_id;
+    }
+
+    public String getFile_name() {
+        return file_name;
+    }
+
+    public int getLine_number() {
+        return line_number;
+    }
+
+    public Long getCheque_id() {
+        return cheque_id;
+    }
+}
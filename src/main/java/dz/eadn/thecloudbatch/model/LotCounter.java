@@ -0,0 +1,64 @@
+package dz.eadn.thecloudbatch.model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+import jakarta.persistence.*;
+
+/**
+ * Next free lot number for one day and file kind (LOT, CRA). Rows are created
+ * and advanced by LotNumberAllocator under a row lock, so every job and node
+ * draws from the same counter.
+ */
+@Entity
+@Table(name = "lot_counters")
+@IdClass(LotCounter.Key.class)
+public class LotCounter {
+
+    @Id
+    @Column(name = "lot_date", nullable = false)
+    private LocalDate lot_date;
+
+    @Id
+    @Column(name = "kind", nullable = false, length = 8)
+    private String kind;
+
+    @Column(name = "next_lot", nullable = false)
+    private int next_lot;
+
+    public LocalDate getLot_date() {
+        return lot_date;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public int getNext_lot() {
+        return next_lot;
+    }
+
+    public static class Key implements Serializable {
+        private LocalDate lot_date;
+        private String kind;
+
+        public Key() {
+        }
+
+        public Key(LocalDate lot_date, String kind) {
+            this.lot_date = lot_date;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && Objects.equals(lot_date, other.lot_date) && Objects.equals(kind, other.kind);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lot_date, kind);
+        }
+    }
+}
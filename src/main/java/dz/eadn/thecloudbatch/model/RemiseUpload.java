@@ -0,0 +1,52 @@
+package dz.eadn.thecloudbatch.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.*;
+
+/**
+ * One remise file accepted by the upload endpoint, keyed by the SHA-256 of its
+ * content. RemiseUploadService inserts the row before the file becomes visible
+ * in the upload directory, so the same content uploaded again (under any name)
+ * is refused instead of being ingested twice.
+ */
+@Entity
+@Table(name = "remise_uploads")
+public class RemiseUpload {
+
+    @Id
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String content_hash;
+
+    @Column(name = "file_name", nullable = false)
+    private String file_name;
+
+    @Column(name = "line_count", nullable = false)
+    private long line_count;
+
+    @Column(name = "total_amount", nullable = false)
+    private long total_amount;
+
+    @Column(name = "uploaded_at", nullable = false)
+    private LocalDateTime uploaded_at;
+
+    public String getContent_hash() {
+        return content_hash;
+    }
+
+    public String getFile_name() {
+        return file_name;
+    }
+
+    public long getLine_count() {
+        return line_count;
+    }
+
+    public long getTotal_amount() {
+        return total_amount;
+    }
+
+    public LocalDateTime getUploaded_at() {
+        return uploaded_at;
+    }
+}
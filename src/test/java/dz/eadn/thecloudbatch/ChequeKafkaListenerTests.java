@@ -0,0 +1,131 @@
+package dz.eadn.thecloudbatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.util.backoff.FixedBackOff;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+@SpringBootTest(classes = ChequeKafkaListenerTests.Config.class, properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.auto-offset-reset=earliest",
+        "batch.kafka.topic=cheques-test"
+})
+@EmbeddedKafka(partitions = 1, topics = "cheques-test")
+class ChequeKafkaListenerTests {
+
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Autowired
+    private RecordingWriter writer;
+
+    @Test
+    void writesParsedChequesAndSkipsHeaderAndMalformedLines() {
+        send("rio.operation_type.beneficiary_rib.beneficiary_bank.cheque_number.sender_rib.sender_bank.amount");
+        send(line(910001));
+        send("not a cheque");
+        send(line(910002));
+
+        await().atMost(Duration.ofSeconds(30)).until(() -> writer.contains(910001) && writer.contains(910002));
+
+        Cheque cheque = writer.get(910001);
+        assertThat(cheque.getRio()).isEqualTo("DZ00000000000000000910001");
+        assertThat(cheque.getOperation_type()).isEqualTo((short) 30);
+        assertThat(cheque.getBeneficiary_bank()).isEqualTo((short) 205);
+        assertThat(cheque.getSender_bank()).isEqualTo((short) 201);
+        assertThat(cheque.getAmount()).isEqualTo(1500);
+        assertThat(cheque.getStatus()).isEqualTo("to be integrated");
+    }
+
+    @Test
+    void redeliversABatchWhoseWriteFailed() {
+        writer.failNext(1);
+        int attemptsBefore = writer.attempts.get();
+
+        send(line(920001));
+        send(line(920002));
+
+        await().atMost(Duration.ofSeconds(30)).until(() -> writer.contains(920001) && writer.contains(920002));
+        assertThat(writer.attempts.get() - attemptsBefore).isGreaterThanOrEqualTo(2);
+    }
+
+    private void send(String line) {
+        kafkaTemplate.send("cheques-test", line);
+    }
+
+    private static String line(long chequeNumber) {
+        return String.format("DZ%023d.030.00123456789012345678901.205.%d.%023d.201.1500",
+                chequeNumber, chequeNumber, 20012345678901234L);
+    }
+
+    // Keeps the cheques by number, like the MERGE of the real writer
+    static class RecordingWriter implements ItemWriter<Cheque> {
+        private final Map<Long, Cheque> cheques = new ConcurrentHashMap<>();
+        private final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        @Override
+        public void write(Chunk<? extends Cheque> chunk) {
+            attempts.incrementAndGet();
+            if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new IllegalStateException("Simulated write failure");
+            }
+            for (Cheque cheque : chunk) {
+                cheques.putIfAbsent(cheque.getCheque_number(), cheque);
+            }
+        }
+
+        void failNext(int count) {
+            failures.set(count);
+        }
+
+        boolean contains(long chequeNumber) {
+            return cheques.containsKey(chequeNumber);
+        }
+
+        Cheque get(long chequeNumber) {
+            return cheques.get(chequeNumber);
+        }
+    }
+
+    @Configuration
+    @ImportAutoConfiguration(KafkaAutoConfiguration.class)
+    static class Config {
+
+        @Bean
+        RecordingWriter recordingWriter() {
+            return new RecordingWriter();
+        }
+
+        @Bean
+        ChequeKafkaListener chequeKafkaListener(RecordingWriter recordingWriter) {
+            return new ChequeKafkaListener(recordingWriter, new ResourcelessTransactionManager());
+        }
+
+        @Bean
+        CommonErrorHandler errorHandler() {
+            return new DefaultErrorHandler(new FixedBackOff(100, FixedBackOff.UNLIMITED_ATTEMPTS));
+        }
+    }
+}
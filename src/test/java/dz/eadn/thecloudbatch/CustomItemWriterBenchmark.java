@@ -0,0 +1,126 @@
+package dz.eadn.thecloudbatch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.file.FlatFileItemWriter;
+import org.springframework.batch.item.file.builder.FlatFileItemWriterBuilder;
+import org.springframework.batch.item.file.transform.BeanWrapperFieldExtractor;
+import org.springframework.batch.item.file.transform.DelimitedLineAggregator;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.util.FileSystemUtils;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Compares the NIO {@link CustomItemWriter} with the FlatFileItemWriter-per-group
+ * setup it replaced, writing the same cheques in chunks to a temp directory
+ * (no transaction, so every chunk reaches the files at once). Run it directly:
+ *
+ *   java ... dz.eadn.thecloudbatch.CustomItemWriterBenchmark [cheques] [groups] [chunk] [rounds]
+ */
+public class CustomItemWriterBenchmark {
+
+    private static final String[] FIELDS = {"rio", "operation_type", "beneficiary_rib", "beneficiary_bank",
+            "cheque_number", "sender_rib", "sender_bank", "amount"};
+    private static final String HEADER = String.join(".", FIELDS);
+
+    public static void main(String[] args) throws Exception {
+        int chequeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int groupCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        List<Cheque> cheques = new ArrayList<>(chequeCount);
+        for (int i = 0; i < chequeCount; i++) {
+            int group = i * groupCount / chequeCount;
+            Cheque cheque = new Cheque();
+            cheque.setRio(String.format("DZ%023d", i));
+            cheque.setOperation_type((short) (30 + group % 2));
+            cheque.setBeneficiary_rib("00123456789012345678901");
+            cheque.setBeneficiary_bank((short) (201 + group / 2));
+            cheque.setCheque_number(15000L + i);
+            cheque.setSender_rib(String.format("%023d", 20012345678901234L + i));
+            cheque.setSender_bank((short) (201 + i % 50));
+            cheque.setAmount(1000 + i % 9000);
+            cheques.add(cheque);
+        }
+
+        for (int round = 1; round <= rounds; round++) {
+            long flatFileNanos = run(cheques, chunkSize, true);
+            long nioNanos = run(cheques, chunkSize, false);
+            System.out.printf("round %d: FlatFileItemWriter %,d rows/s, CustomItemWriter %,d rows/s (x%.1f)%n",
+                    round, perSecond(chequeCount, flatFileNanos), perSecond(chequeCount, nioNanos),
+                    (double) flatFileNanos / nioNanos);
+        }
+    }
+
+    private static long run(List<Cheque> cheques, int chunkSize, boolean flatFile) throws Exception {
+        Path directory = Files.createTempDirectory("lot-bench");
+        try {
+            long start = System.nanoTime();
+            if (flatFile) {
+                writeWithFlatFileWriters(directory, cheques, chunkSize);
+            } else {
+                CustomItemWriter writer = new CustomItemWriter(directory.toString(), "LOT", FIELDS, HEADER, ".");
+                writer.open(new ExecutionContext());
+                for (int from = 0; from < cheques.size(); from += chunkSize) {
+                    writer.write(new Chunk<>(cheques.subList(from, Math.min(from + chunkSize, cheques.size()))));
+                }
+                writer.close();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    // What write() used to do: regroup by a String key, then one FlatFileItemWriter per group
+    private static void writeWithFlatFileWriters(Path directory, List<Cheque> cheques, int chunkSize) throws Exception {
+        Map<String, FlatFileItemWriter<Cheque>> writers = new HashMap<>();
+        for (int from = 0; from < cheques.size(); from += chunkSize) {
+            Map<String, List<Cheque>> groups = new HashMap<>();
+            for (Cheque cheque : cheques.subList(from, Math.min(from + chunkSize, cheques.size()))) {
+                String key = cheque.getBeneficiary_bank() + "_" + cheque.getOperation_type();
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(cheque);
+            }
+            for (Map.Entry<String, List<Cheque>> entry : groups.entrySet()) {
+                FlatFileItemWriter<Cheque> writer = writers.get(entry.getKey());
+                if (writer == null) {
+                    writer = flatFileWriter(directory.resolve(entry.getKey() + ".LOT"));
+                    writers.put(entry.getKey(), writer);
+                }
+                writer.write(new Chunk<>(entry.getValue()));
+            }
+        }
+        writers.values().forEach(FlatFileItemWriter::close);
+    }
+
+    private static FlatFileItemWriter<Cheque> flatFileWriter(Path file) throws Exception {
+        BeanWrapperFieldExtractor<Cheque> extractor = new BeanWrapperFieldExtractor<>();
+        extractor.setNames(FIELDS);
+        DelimitedLineAggregator<Cheque> aggregator = new DelimitedLineAggregator<>();
+        aggregator.setDelimiter(".");
+        aggregator.setFieldExtractor(extractor);
+        FlatFileItemWriter<Cheque> writer = new FlatFileItemWriterBuilder<Cheque>()
+                .name("bench")
+                .resource(new FileSystemResource(file))
+                .lineAggregator(aggregator)
+                .headerCallback(w -> w.write(HEADER))
+                .shouldDeleteIfExists(true)
+                .build();
+        writer.afterPropertiesSet();
+        writer.open(new ExecutionContext());
+        return writer;
+    }
+
+    private static long perSecond(int rows, long nanos) {
+        return rows * 1_000_000_000L / Math.max(nanos, 1);
+    }
+}
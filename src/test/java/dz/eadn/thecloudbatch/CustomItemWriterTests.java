@@ -0,0 +1,289 @@
+package dz.eadn.thecloudbatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+class CustomItemWriterTests {
+
+    private static final String[] FIELDS = {"rio", "operation_type", "beneficiary_rib", "beneficiary_bank",
+            "cheque_number", "sender_rib", "sender_bank", "amount"};
+    private static final String HEADER = String.join(".", FIELDS);
+    private static final String EOL = System.lineSeparator();
+    private static final String NAME = "lotFileWriter";
+
+    private final TransactionTemplate transactionTemplate = new TransactionTemplate(new ResourcelessTransactionManager());
+    private final ExecutionContext executionContext = new ExecutionContext();
+    // Committed lines per group, keyed by "bank,operation type"
+    private final Map<String, StringBuilder> expected = new TreeMap<>();
+    private long chequeNumber = 1;
+
+    @TempDir
+    Path outputDirectory;
+
+    @Test
+    void rollsBackWhileTheFlusherWritesEarlierChunks() throws Exception {
+        CustomItemWriter writer = writer(true, 2);
+        writer.open(executionContext);
+
+        for (int round = 0; round < 200; round++) {
+            List<Cheque> chunk = new ArrayList<>();
+            for (int bank = 201; bank <= 205; bank++) {
+                chunk.add(cheque(bank, 30));
+            }
+            commit(writer, chunk);
+            // Lines of a committed group and of a new one, rolled back while the
+            // flusher is still opening, evicting and writing the files above
+            List<Cheque> rolledBack = List.of(cheque(201, 30), cheque(300 + round, 31));
+            if (round % 2 == 0) {
+                rollback(writer, rolledBack);
+            } else {
+                failCommit(writer, rolledBack);
+            }
+        }
+        writer.close();
+
+        assertFiles();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void writesCommittedChunksToOneFilePerGroup(boolean asyncFlush) throws Exception {
+        CustomItemWriter writer = writer(asyncFlush, 64);
+        writer.open(executionContext);
+
+        commit(writer, List.of(cheque(201, 30), cheque(201, 30), cheque(202, 31)));
+        commit(writer, List.of(cheque(202, 31), cheque(201, 30), cheque(203, 30)));
+        writer.close();
+
+        assertThat(expected).containsOnlyKeys("201,30", "202,31", "203,30");
+        assertFiles();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void dropsTheLinesOfARolledBackChunk(boolean asyncFlush) throws Exception {
+        CustomItemWriter writer = writer(asyncFlush, 64);
+        writer.open(executionContext);
+
+        commit(writer, List.of(cheque(201, 30), cheque(202, 30)));
+        rollback(writer, List.of(cheque(201, 30), cheque(204, 30)));
+        commit(writer, List.of(cheque(202, 30), cheque(201, 30)));
+        writer.close();
+
+        // 204 only had rolled back lines: no file, and no lot number kept for it
+        assertThat(expected).containsOnlyKeys("201,30", "202,30");
+        assertFiles();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void truncatesTheFilesWhenTheCommitFailsAfterTheFlush(boolean asyncFlush) throws Exception {
+        CustomItemWriter writer = writer(asyncFlush, 64);
+        writer.open(executionContext);
+        commit(writer, List.of(cheque(201, 30), cheque(202, 30)));
+        if (!asyncFlush) {
+            assertFiles();
+        }
+
+        failCommit(writer, List.of(cheque(201, 30), cheque(202, 30), cheque(204, 30)));
+        if (!asyncFlush) {
+            // beforeCommit had written the chunk; afterCompletion took it back out
+            assertFiles();
+        }
+
+        commit(writer, List.of(cheque(201, 30), cheque(204, 30)));
+        writer.close();
+
+        assertThat(expected).containsOnlyKeys("201,30", "202,30", "204,30");
+        assertFiles();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void resumesTheCheckpointedFilesOnRestart(boolean asyncFlush) throws Exception {
+        CustomItemWriter writer = writer(asyncFlush, 64);
+        writer.open(executionContext);
+        commit(writer, List.of(cheque(201, 30), cheque(202, 30)));
+        commit(writer, List.of(cheque(201, 30), cheque(202, 31)));
+        writer.close();
+        Map<String, String> fileNames = fileNames();
+
+        // A chunk flushed before the crash but never committed
+        for (String fileName : fileNames.values()) {
+            Files.writeString(outputDirectory.resolve(fileName), "uncommitted" + EOL, StandardOpenOption.APPEND);
+        }
+
+        CustomItemWriter restarted = writer(asyncFlush, 64);
+        restarted.open(executionContext);
+        for (CustomItemWriter.CheckpointedFile file : CustomItemWriter.checkpointedFiles(executionContext, NAME)) {
+            assertThat(Files.size(outputDirectory.resolve(file.fileName()))).isEqualTo(file.size());
+        }
+        commit(restarted, List.of(cheque(201, 30), cheque(203, 30), cheque(202, 31)));
+        restarted.close();
+
+        // Same files, same lot numbers, appended to
+        assertThat(fileNames()).containsAllEntriesOf(fileNames);
+        assertThat(expected).containsOnlyKeys("201,30", "202,30", "202,31", "203,30");
+        assertFiles();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void refusesToRestartFromAFileShorterThanItsCheckpoint(boolean asyncFlush) throws Exception {
+        CustomItemWriter writer = writer(asyncFlush, 64);
+        writer.open(executionContext);
+        commit(writer, List.of(cheque(201, 30), cheque(201, 30)));
+        writer.close();
+
+        // What an async flush lost in a crash looks like
+        Path file = outputDirectory.resolve(fileNames().get("201,30"));
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 1);
+        }
+
+        assertThatThrownBy(() -> writer(asyncFlush, 64).open(executionContext))
+                .isInstanceOf(ItemStreamException.class)
+                .hasMessageContaining("Cannot restart");
+        assertThat(Files.size(file)).isEqualTo(size - 1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void keepsEveryFileCompleteAndInOrderWithTwoOpenFiles(boolean asyncFlush) throws Exception {
+        CustomItemWriter writer = writer(asyncFlush, 2);
+        writer.open(executionContext);
+
+        // Every chunk touches every group, so each flush reopens files the pool closed
+        for (int round = 0; round < 50; round++) {
+            List<Cheque> chunk = new ArrayList<>();
+            for (int line = 0; line < 20; line++) {
+                chunk.add(cheque(201 + line % 5, 30 + (line / 5) % 2));
+            }
+            commit(writer, chunk);
+        }
+        writer.close();
+
+        assertThat(expected).hasSize(10);
+        assertFiles();
+    }
+
+    private CustomItemWriter writer(boolean asyncFlush, int maxOpenFiles) {
+        CustomItemWriter writer = new CustomItemWriter(outputDirectory.toString(), "LOT", FIELDS, HEADER, ".");
+        writer.setName(NAME);
+        writer.setAsyncFlush(asyncFlush);
+        writer.setMaxOpenFiles(maxOpenFiles);
+        return writer;
+    }
+
+    private void commit(CustomItemWriter writer, List<Cheque> cheques) {
+        transactionTemplate.executeWithoutResult(status -> chunk(writer, cheques, executionContext));
+        for (Cheque cheque : cheques) {
+            expected.computeIfAbsent(cheque.getBeneficiary_bank() + "," + cheque.getOperation_type(),
+                    group -> new StringBuilder(HEADER + EOL)).append(line(cheque));
+        }
+    }
+
+    private void rollback(CustomItemWriter writer, List<Cheque> cheques) {
+        transactionTemplate.executeWithoutResult(status -> {
+            chunk(writer, cheques, new ExecutionContext());
+            status.setRollbackOnly();
+        });
+    }
+
+    // The chunk transaction fails after the writer's beforeCommit has run
+    private void failCommit(CustomItemWriter writer, List<Cheque> cheques) {
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> {
+            chunk(writer, cheques, new ExecutionContext());
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    throw new IllegalStateException("commit failed");
+                }
+            });
+        })).hasMessage("commit failed");
+    }
+
+    // What a chunk-oriented step does inside the chunk transaction; the step
+    // only saves the ExecutionContext of the chunks that commit
+    private void chunk(CustomItemWriter writer, List<Cheque> cheques, ExecutionContext context) {
+        try {
+            writer.write(new Chunk<>(cheques));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        writer.update(context);
+    }
+
+    /**
+     * Every committed group has exactly one file, holding its header and its
+     * committed lines in order, at the size of the last checkpoint.
+     */
+    private void assertFiles() throws IOException {
+        Map<String, CustomItemWriter.CheckpointedFile> checkpoint = CustomItemWriter.checkpointedFiles(executionContext, NAME)
+                .stream().collect(Collectors.toMap(file -> file.bank() + "," + file.operationType(), file -> file));
+        assertThat(checkpoint.keySet()).containsExactlyInAnyOrderElementsOf(expected.keySet());
+        try (Stream<Path> files = Files.list(outputDirectory)) {
+            assertThat(files.map(file -> file.getFileName().toString()))
+                    .containsExactlyInAnyOrderElementsOf(checkpoint.values().stream()
+                            .map(CustomItemWriter.CheckpointedFile::fileName).toList());
+        }
+        for (Map.Entry<String, StringBuilder> group : expected.entrySet()) {
+            CustomItemWriter.CheckpointedFile file = checkpoint.get(group.getKey());
+            Path path = outputDirectory.resolve(file.fileName());
+            assertThat(Files.readString(path)).isEqualTo(group.getValue().toString());
+            assertThat(Files.size(path)).isEqualTo(file.size());
+        }
+    }
+
+    private Map<String, String> fileNames() {
+        return CustomItemWriter.checkpointedFiles(executionContext, NAME).stream().collect(Collectors.toMap(
+                file -> file.bank() + "," + file.operationType(), CustomItemWriter.CheckpointedFile::fileName));
+    }
+
+    private static String line(Cheque cheque) {
+        return cheque.getRio() + "." + cheque.getOperation_type() + "." + cheque.getBeneficiary_rib() + "."
+                + cheque.getBeneficiary_bank() + "." + cheque.getCheque_number() + "." + cheque.getSender_rib() + "."
+                + cheque.getSender_bank() + "." + cheque.getAmount() + EOL;
+    }
+
+    private Cheque cheque(int bank, int operationType) {
+        long number = chequeNumber++;
+        Cheque cheque = new Cheque();
+        cheque.setRio(String.format("DZ%023d", number));
+        cheque.setOperation_type((short) operationType);
+        cheque.setBeneficiary_rib("00123456789012345678901");
+        cheque.setBeneficiary_bank((short) bank);
+        cheque.setCheque_number(15000 + number);
+        cheque.setSender_rib("00000020012345678901234");
+        cheque.setSender_bank((short) 201);
+        cheque.setAmount(1000 + (int) number);
+        return cheque;
+    }
+}
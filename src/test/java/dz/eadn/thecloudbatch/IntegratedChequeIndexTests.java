@@ -0,0 +1,210 @@
+package dz.eadn.thecloudbatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+class IntegratedChequeIndexTests {
+
+    @Test
+    void findsEveryIndexedCheque() {
+        List<Cheque> cheques = List.of(cheque(15000), cheque(15001), cheque(0), cheque(999_999_999_999_999_999L));
+
+        IntegratedChequeIndex index = IntegratedChequeIndex.of(cheques);
+
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(cheques).allMatch(index::contains);
+    }
+
+    @Test
+    void missesAnUnknownChequeNumber() {
+        IntegratedChequeIndex index = IntegratedChequeIndex.of(List.of(cheque(15000), cheque(15001)));
+
+        assertThat(index.contains(cheque(15002))).isFalse();
+        assertThat(index.contains(cheque(-15000))).isFalse();
+        assertThat(IntegratedChequeIndex.of(List.of()).contains(cheque(15000))).isFalse();
+    }
+
+    @Test
+    void missesAChequeThatDiffersOnAnotherColumn() {
+        IntegratedChequeIndex index = IntegratedChequeIndex.of(List.of(cheque(15000)));
+
+        Cheque rio = cheque(15000);
+        rio.setRio("DZ00000000000000000000002");
+        Cheque operationType = cheque(15000);
+        operationType.setOperation_type((short) 31);
+        Cheque beneficiaryRib = cheque(15000);
+        beneficiaryRib.setBeneficiary_rib("00123456789012345678902");
+        Cheque beneficiaryBank = cheque(15000);
+        beneficiaryBank.setBeneficiary_bank((short) 206);
+        Cheque senderRib = cheque(15000);
+        senderRib.setSender_rib("00000020012345678901235");
+        Cheque senderBank = cheque(15000);
+        senderBank.setSender_bank((short) 202);
+        Cheque amount = cheque(15000);
+        amount.setAmount(1501);
+
+        assertThat(List.of(rio, operationType, beneficiaryRib, beneficiaryBank, senderRib, senderBank, amount))
+                .noneMatch(index::contains);
+    }
+
+    @Test
+    void resolvesChequeNumbersCollidingOnTheSameSlot() {
+        // Cheque numbers whose hash lands on the same slot of the initial 16-slot table
+        List<Long> colliding = collidingChequeNumbers(6, 16);
+        List<Cheque> cheques = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Cheque cheque = cheque(colliding.get(i));
+            cheque.setAmount(1000 + i);
+            cheques.add(cheque);
+        }
+
+        IntegratedChequeIndex index = IntegratedChequeIndex.of(cheques);
+
+        assertThat(index.capacity()).isEqualTo(16);
+        assertThat(index.size()).isEqualTo(5);
+        assertThat(cheques).allMatch(index::contains);
+        // Each cheque keeps its own fingerprint, not the one of a neighbour in the probe sequence
+        Cheque swapped = cheque(colliding.get(0));
+        swapped.setAmount(1001);
+        assertThat(index.contains(swapped)).isFalse();
+        // The probe for an absent colliding number walks past the whole cluster
+        assertThat(index.contains(cheque(colliding.get(5)))).isFalse();
+    }
+
+    @Test
+    void keepsTheLastFingerprintOfARepeatedChequeNumber() {
+        Cheque first = cheque(15000);
+        Cheque second = cheque(15000);
+        second.setAmount(2000);
+
+        IntegratedChequeIndex index = IntegratedChequeIndex.of(List.of(first, second));
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.contains(second)).isTrue();
+        assertThat(index.contains(first)).isFalse();
+    }
+
+    @Test
+    void growsPastTheMaximumLoadFactor() {
+        List<Cheque> cheques = new ArrayList<>();
+        for (long number = 1; number <= 10_000; number++) {
+            cheques.add(cheque(number * 7919));
+        }
+
+        IntegratedChequeIndex index = IntegratedChequeIndex.of(cheques);
+
+        assertThat(index.size()).isEqualTo(10_000);
+        assertThat(index.capacity()).isEqualTo(32_768);
+        assertThat(cheques).allMatch(index::contains);
+        assertThat(index.contains(cheque(7919 * 10_001L))).isFalse();
+        assertThat(index.contains(cheque(7919 + 1))).isFalse();
+    }
+
+    @Test
+    void cacheLoadsEachBankOncePerJobExecution() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        IntegratedChequeIndexCache cache = new IntegratedChequeIndexCache(bank -> {
+            loads.incrementAndGet();
+            awaitQuietly(loading);
+            return IntegratedChequeIndex.of(List.of(cheque(bank)));
+        });
+
+        ExecutorService partitions = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<IntegratedChequeIndex>> sameBank = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                sameBank.add(partitions.submit(() -> cache.get(1L, 205)));
+            }
+            loading.countDown();
+            IntegratedChequeIndex index = sameBank.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<IntegratedChequeIndex> partition : sameBank) {
+                assertThat(partition.get(5, TimeUnit.SECONDS)).isSameAs(index);
+            }
+            assertThat(loads).hasValue(1);
+
+            assertThat(cache.get(1L, 206)).isNotSameAs(index);
+            assertThat(cache.get(2L, 205)).isNotSameAs(index);
+            assertThat(loads).hasValue(3);
+        } finally {
+            partitions.shutdownNow();
+        }
+    }
+
+    @Test
+    void cacheDropsTheIndexesOfAJobExecutionWhenTheStepEnds() {
+        AtomicInteger loads = new AtomicInteger();
+        IntegratedChequeIndexCache cache = new IntegratedChequeIndexCache(bank -> {
+            loads.incrementAndGet();
+            return IntegratedChequeIndex.of(List.of());
+        });
+        IntegratedChequeIndex first = cache.get(1L, 205);
+
+        cache.afterStep(new StepExecution("craValidationStep", new JobExecution(1L)));
+
+        assertThat(cache.get(1L, 205)).isNotSameAs(first);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void cacheRetriesABankWhoseLoadFailed() {
+        AtomicInteger loads = new AtomicInteger();
+        IntegratedChequeIndexCache cache = new IntegratedChequeIndexCache(bank -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("connection reset");
+            }
+            return IntegratedChequeIndex.of(List.of());
+        });
+
+        assertThatThrownBy(() -> cache.get(1L, 205)).hasMessage("connection reset");
+        assertThat(cache.get(1L, 205).size()).isZero();
+        assertThat(loads).hasValue(2);
+    }
+
+    private static List<Long> collidingChequeNumbers(int count, int capacity) {
+        List<Long> numbers = new ArrayList<>();
+        int target = (int) IntegratedChequeIndex.mix(1) & (capacity - 1);
+        for (long number = 1; numbers.size() < count; number++) {
+            if (((int) IntegratedChequeIndex.mix(number) & (capacity - 1)) == target) {
+                numbers.add(number);
+            }
+        }
+        return numbers;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Cheque cheque(long chequeNumber) {
+        Cheque cheque = new Cheque();
+        cheque.setRio("DZ00000000000000000000001");
+        cheque.setOperation_type((short) 30);
+        cheque.setBeneficiary_rib("00123456789012345678901");
+        cheque.setBeneficiary_bank((short) 205);
+        cheque.setCheque_number(chequeNumber);
+        cheque.setSender_rib("00000020012345678901234");
+        cheque.setSender_bank((short) 201);
+        cheque.setAmount(1500);
+        return cheque;
+    }
+}
@@ -0,0 +1,160 @@
+package dz.eadn.thecloudbatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs the allocator against lot_counters in an in-memory H2 database in
+ * Oracle mode, where SELECT ... FOR UPDATE takes a row lock as it does on
+ * Oracle.
+ */
+class LotNumberAllocatorTests {
+
+    private static final String COUNTER_SQL = "SELECT next_lot FROM lot_counters WHERE lot_date = ? AND kind = ?";
+
+    private DriverManagerDataSource dataSource;
+    private DataSourceTransactionManager transactionManager;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void createSchema() {
+        dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:lots;MODE=Oracle;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000", "sa", "");
+        transactionManager = new DataSourceTransactionManager(dataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("""
+                CREATE TABLE lot_counters (
+                    lot_date DATE NOT NULL,
+                    kind VARCHAR(8) NOT NULL,
+                    next_lot INT NOT NULL,
+                    PRIMARY KEY (lot_date, kind)
+                )
+                """);
+    }
+
+    @AfterEach
+    void dropSchema() {
+        jdbcTemplate.execute("DROP TABLE lot_counters");
+    }
+
+    @Test
+    void reservesABlockAtATime() {
+        LotNumberAllocator allocator = new LotNumberAllocator(dataSource, transactionManager, 10);
+
+        assertThat(allocator.nextLotNumber("LOT")).isEqualTo(1);
+        assertThat(counter("LOT")).isEqualTo(11);
+        for (int lot = 2; lot <= 10; lot++) {
+            assertThat(allocator.nextLotNumber("LOT")).isEqualTo(lot);
+        }
+        assertThat(counter("LOT")).isEqualTo(11);
+
+        assertThat(allocator.nextLotNumber("LOT")).isEqualTo(11);
+        assertThat(counter("LOT")).isEqualTo(21);
+    }
+
+    @Test
+    void keepsOneCounterPerKind() {
+        LotNumberAllocator allocator = new LotNumberAllocator(dataSource, transactionManager, 5);
+
+        assertThat(allocator.nextLotNumber("LOT")).isEqualTo(1);
+        assertThat(allocator.nextLotNumber("CRA")).isEqualTo(1);
+        assertThat(allocator.nextLotNumber("LOT")).isEqualTo(2);
+        assertThat(counter("LOT")).isEqualTo(6);
+        assertThat(counter("CRA")).isEqualTo(6);
+    }
+
+    @Test
+    void keepsTheReservedBlockWhenTheCallerRollsBack() {
+        LotNumberAllocator allocator = new LotNumberAllocator(dataSource, transactionManager, 10);
+
+        // The reservation runs in its own transaction, not in the chunk's
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertThat(allocator.nextLotNumber("LOT")).isEqualTo(1);
+            status.setRollbackOnly();
+        });
+
+        assertThat(counter("LOT")).isEqualTo(11);
+        assertThat(new LotNumberAllocator(dataSource, transactionManager, 10).nextLotNumber("LOT")).isEqualTo(11);
+    }
+
+    @Test
+    void stopsAtTheDailyLimit() {
+        jdbcTemplate.update("INSERT INTO lot_counters (lot_date, kind, next_lot) VALUES (?, ?, ?)",
+                Date.valueOf(LocalDate.now()), "LOT", 995);
+        LotNumberAllocator allocator = new LotNumberAllocator(dataSource, transactionManager, 10);
+
+        for (int lot = 995; lot <= LotNumberAllocator.MAX_LOT_NUMBER; lot++) {
+            assertThat(allocator.nextLotNumber("LOT")).isEqualTo(lot);
+        }
+        assertThat(counter("LOT")).isEqualTo(LotNumberAllocator.MAX_LOT_NUMBER + 1);
+
+        assertThatThrownBy(() -> allocator.nextLotNumber("LOT"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("No LOT lot numbers left");
+        assertThatThrownBy(() -> new LotNumberAllocator(dataSource, transactionManager, 10).nextLotNumber("LOT"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void neverHandsOutTheSameNumberToTwoAllocators() throws Exception {
+        // Two nodes, each drawing from several threads, racing for the first row of the day
+        List<LotNumberAllocator> allocators = List.of(
+                new LotNumberAllocator(dataSource, transactionManager, 3),
+                new LotNumberAllocator(dataSource, transactionManager, 3));
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Integer>>> draws = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                LotNumberAllocator allocator = allocators.get(thread % 2);
+                Callable<List<Integer>> draw = () -> {
+                    start.await();
+                    List<Integer> lots = new ArrayList<>();
+                    for (int i = 0; i < 50; i++) {
+                        lots.add(allocator.nextLotNumber("LOT"));
+                    }
+                    return lots;
+                };
+                draws.add(threads.submit(draw));
+            }
+            start.countDown();
+
+            Set<Integer> lots = new HashSet<>();
+            for (Future<List<Integer>> draw : draws) {
+                for (int lot : draw.get(30, TimeUnit.SECONDS)) {
+                    assertThat(lots.add(lot)).as("lot %d handed out twice", lot).isTrue();
+                }
+            }
+            assertThat(lots).hasSize(400).allMatch(lot -> lot >= 1 && lot <= LotNumberAllocator.MAX_LOT_NUMBER);
+            // At most one partly used block per allocator is left over
+            assertThat(counter("LOT") - 1).isBetween(400, 400 + 2 * 3);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private int counter(String kind) {
+        return jdbcTemplate.queryForObject(COUNTER_SQL, Integer.class, Date.valueOf(LocalDate.now()), kind);
+    }
+}
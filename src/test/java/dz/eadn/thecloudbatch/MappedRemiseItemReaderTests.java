@@ -0,0 +1,187 @@
+package dz.eadn.thecloudbatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.file.FlatFileItemReader;
+import org.springframework.batch.item.file.FlatFileParseException;
+import org.springframework.batch.item.file.LineMapper;
+import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
+import org.springframework.core.io.FileSystemResource;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Reads the same files with {@link MappedRemiseItemReader} and the
+ * FlatFileItemReader it replaced, with windows of a few bytes so that lines
+ * cross window boundaries, mapped and through the heap-read fallback.
+ */
+class MappedRemiseItemReaderTests {
+
+    private static final String HEADER = "rio.operation_type.beneficiary_rib.beneficiary_bank.cheque_number.sender_rib.sender_bank.amount";
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @CsvSource({"7, true", "7, false", "64, true", "64, false", "100000, true", "100000, false"})
+    void readsTheSameChequesAsFlatFileItemReader(long windowSize, boolean memoryMapped) throws Exception {
+        Path file = write("remise", lines(200), "\n", true);
+
+        assertThat(read(mapped(file, windowSize, memoryMapped), new ExecutionContext()))
+                .containsExactlyElementsOf(read(flatFile(file), new ExecutionContext()));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"5, true", "5, false", "4096, true"})
+    void readsCrlfEndingsAndALastLineWithoutTerminator(long windowSize, boolean memoryMapped) throws Exception {
+        Path file = write("crlf", lines(50), "\r\n", false);
+
+        List<String> cheques = read(mapped(file, windowSize, memoryMapped), new ExecutionContext());
+
+        assertThat(cheques).hasSize(50).containsExactlyElementsOf(read(flatFile(file), new ExecutionContext()));
+        assertThat(cheques.get(49)).endsWith("." + (1000 + 49));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"6, true", "6, false"})
+    void skipsBlankLines(long windowSize, boolean memoryMapped) throws Exception {
+        List<String> lines = lines(3);
+        String content = HEADER + "\n" + lines.get(0) + "\n\n\r\n" + lines.get(1) + "\r\n\n" + lines.get(2) + "\n\n";
+        Path file = directory.resolve("blank.remise");
+        Files.writeString(file, content, StandardCharsets.ISO_8859_1);
+
+        assertThat(read(mapped(file, windowSize, memoryMapped), new ExecutionContext()))
+                .containsExactlyElementsOf(read(flatFile(write("noblank", lines, "\n", true)), new ExecutionContext()));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"16, true", "16, false"})
+    void restartsFromTheSavedOffsetWithoutRereading(long windowSize, boolean memoryMapped) throws Exception {
+        Path file = write("restart", lines(30), "\r\n", true);
+        List<String> expected = read(flatFile(file), new ExecutionContext());
+
+        ExecutionContext executionContext = new ExecutionContext();
+        MappedRemiseItemReader first = mapped(file, windowSize, memoryMapped);
+        first.open(executionContext);
+        List<String> before = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            before.add(describe(first.read()));
+        }
+        first.update(executionContext);
+        // Read past the checkpoint, as a chunk that then rolls back would
+        first.read();
+        first.read();
+        first.close();
+
+        assertThat(executionContext.getLong("chequeReader.position")).isPositive();
+
+        AtomicInteger mapped = new AtomicInteger();
+        RemiseLineMapper remiseLineMapper = new RemiseLineMapper();
+        MappedRemiseItemReader restarted = mapped(file, windowSize, memoryMapped);
+        restarted.setLineMapper((line, lineNumber) -> {
+            mapped.incrementAndGet();
+            return remiseLineMapper.mapLine(line, lineNumber);
+        });
+        List<String> after = read(restarted, executionContext);
+
+        assertThat(before).containsExactlyElementsOf(expected.subList(0, 12));
+        assertThat(after).containsExactlyElementsOf(expected.subList(12, 30));
+        // Seeked to the saved offset: the 12 committed lines were not mapped again
+        assertThat(mapped.get()).isEqualTo(18);
+    }
+
+    @Test
+    void reportsTheLineNumberOfABadLine() throws Exception {
+        List<String> lines = lines(3);
+        lines.set(1, "not a cheque");
+        Path file = write("bad", lines, "\n", true);
+        MappedRemiseItemReader reader = mapped(file, 8, true);
+        reader.open(new ExecutionContext());
+        try {
+            reader.read();
+            assertThatThrownBy(reader::read)
+                    .isInstanceOf(FlatFileParseException.class)
+                    .satisfies(e -> assertThat(((FlatFileParseException) e).getLineNumber()).isEqualTo(3));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private MappedRemiseItemReader mapped(Path file, long windowSize, boolean memoryMapped) {
+        MappedRemiseItemReader reader = new MappedRemiseItemReader();
+        reader.setName("chequeReader");
+        reader.setResource(new FileSystemResource(file));
+        reader.setLinesToSkip(1);
+        reader.setLineMapper(new RemiseLineMapper());
+        reader.setWindowSize(windowSize);
+        reader.setMemoryMapped(memoryMapped);
+        return reader;
+    }
+
+    private static FlatFileItemReader<Cheque> flatFile(Path file) {
+        LineMapper<Cheque> lineMapper = new RemiseLineMapper();
+        return new FlatFileItemReaderBuilder<Cheque>()
+                .name("flatFileReader")
+                .resource(new FileSystemResource(file))
+                .linesToSkip(1)
+                .lineMapper(lineMapper)
+                .build();
+    }
+
+    private static List<String> read(ItemStreamReader<Cheque> reader, ExecutionContext executionContext) throws Exception {
+        List<String> cheques = new ArrayList<>();
+        reader.open(executionContext);
+        try {
+            Cheque cheque;
+            while ((cheque = reader.read()) != null) {
+                cheques.add(describe(cheque));
+            }
+        } finally {
+            reader.close();
+        }
+        return cheques;
+    }
+
+    private Path write(String name, List<String> lines, String terminator, boolean lastTerminated) throws Exception {
+        StringBuilder content = new StringBuilder(HEADER).append(terminator);
+        for (int i = 0; i < lines.size(); i++) {
+            content.append(lines.get(i));
+            if (i < lines.size() - 1 || lastTerminated) {
+                content.append(terminator);
+            }
+        }
+        Path file = directory.resolve(name + ".remise");
+        Files.writeString(file, content, StandardCharsets.ISO_8859_1);
+        return file;
+    }
+
+    // Lines of varying length, some longer than the smaller windows
+    private static List<String> lines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(String.format("DZ%0" + (3 + i % 23) + "d.030.00123456789012345678901.%d.%d.%023d.%d.%d",
+                    i, 201 + i % 7, 15000L + i, 20012345678901234L + i, 201 + i % 50, 1000 + i));
+        }
+        return lines;
+    }
+
+    private static String describe(Cheque cheque) {
+        return String.join(".", cheque.getRio(), String.valueOf(cheque.getOperation_type()), cheque.getBeneficiary_rib(),
+                String.valueOf(cheque.getBeneficiary_bank()), String.valueOf(cheque.getCheque_number()),
+                cheque.getSender_rib(), String.valueOf(cheque.getSender_bank()), String.valueOf(cheque.getAmount()));
+    }
+}
@@ -0,0 +1,61 @@
+package dz.eadn.thecloudbatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class RemiseContentScannerTests {
+
+    private static final String HEADER = "rio.operation_type.beneficiary_rib.beneficiary_bank.cheque_number.sender_rib.sender_bank.amount";
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "DZ1.030.00123.205.15000.00200.201.1500",
+            "DZ1.-1.00123.-205.-15000.00200.32767.-1500",
+            "DZ1.030.00123.205.999999999999999999.00200.201.2147483647",
+            "DZ1.030..205.15000..201.1500"})
+    void acceptsTheLinesRemiseLineMapperMaps(String line) throws Exception {
+        RemiseContentScanner scanner = scan(HEADER + "\r\n" + line + "\r\n\r\n" + line);
+
+        assertThat(scanner.error).isNull();
+        assertThat(scanner.lines).isEqualTo(2);
+        assertThat(scanner.total).isEqualTo(2L * new RemiseLineMapper().mapLine(line, 2).getAmount());
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "DZ1.030.00123.205.15000.00200.201       | expected 8 fields, found 7",
+            "DZ1.030.00123.205.15000.00200.201.15.00 | expected 8 fields, found 9",
+            "DZ1.3O.00123.205.15000.00200.201.1500   | invalid operation_type",
+            "DZ1.32768.00123.205.15000.00200.201.1500 | invalid operation_type",
+            "DZ1.030.00123..15000.00200.201.1500     | invalid beneficiary_bank",
+            "DZ1.030.00123.205.1000000000000000000.00200.201.1500 | invalid cheque_number",
+            "DZ1.030.00123.205.15-000.00200.201.1500 | invalid cheque_number",
+            "DZ1.030.00123.205.15000.00200.-.1500    | invalid sender_bank",
+            "DZ1.030.00123.205.15000.00200.201.2147483648 | invalid amount",
+            "DZ1.030.00123.205.15000.00200.201.15 00 | invalid amount"})
+    void rejectsWhatRemiseLineMapperRejects(String line, String error) throws Exception {
+        RemiseContentScanner scanner = scan(HEADER + "\n" + HEADER.replace("rio", "DZ0").replaceAll("[a-z_]+", "1") + "\n" + line);
+
+        assertThat(scanner.error).isEqualTo("Line 3: " + error);
+        assertThatThrownBy(() -> new RemiseLineMapper().mapLine(line, 3)).isInstanceOf(RuntimeException.class);
+    }
+
+    private static RemiseContentScanner scan(String content) {
+        RemiseContentScanner scanner = new RemiseContentScanner(false);
+        byte[] bytes = content.getBytes(StandardCharsets.ISO_8859_1);
+        // Split the input so fields straddle buffer boundaries
+        for (int i = 0; i < bytes.length; i += 7) {
+            byte[] part = new byte[Math.min(7, bytes.length - i)];
+            System.arraycopy(bytes, i, part, 0, part.length);
+            scanner.scan(part, part.length);
+        }
+        scanner.finish();
+        return scanner;
+    }
+}
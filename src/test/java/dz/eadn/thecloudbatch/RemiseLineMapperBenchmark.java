@@ -0,0 +1,88 @@
+package dz.eadn.thecloudbatch;
+
+import org.springframework.batch.item.file.LineMapper;
+import org.springframework.batch.item.file.mapping.BeanWrapperFieldSetMapper;
+import org.springframework.batch.item.file.mapping.DefaultLineMapper;
+import org.springframework.batch.item.file.transform.DelimitedLineTokenizer;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+/**
+ * Compares {@link RemiseLineMapper} with the BeanWrapperFieldSetMapper setup the
+ * readers used before. Run it directly (it is not picked up by surefire):
+ *
+ *   java ... dz.eadn.thecloudbatch.RemiseLineMapperBenchmark [lines] [rounds]
+ */
+public class RemiseLineMapperBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        String[] lines = new String[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            lines[i] = String.format("DZ%023d.030.00123456789012345678901.205.%d.%023d.%d.%d",
+                    i, 15000L + i, 20012345678901234L + i, 201 + i % 50, 1000 + i % 9000);
+        }
+
+        LineMapper<Cheque> reflective = reflectiveMapper();
+        LineMapper<Cheque> remise = new RemiseLineMapper();
+        verify(lines, reflective, remise);
+
+        for (int round = 1; round <= rounds; round++) {
+            long reflectiveNanos = run(lines, reflective);
+            long remiseNanos = run(lines, remise);
+            System.out.printf("round %d: BeanWrapperFieldSetMapper %,d lines/s, RemiseLineMapper %,d lines/s (x%.1f)%n",
+                    round, perSecond(lineCount, reflectiveNanos), perSecond(lineCount, remiseNanos),
+                    (double) reflectiveNanos / remiseNanos);
+        }
+    }
+
+    private static LineMapper<Cheque> reflectiveMapper() throws Exception {
+        DelimitedLineTokenizer tokenizer = new DelimitedLineTokenizer(".");
+        tokenizer.setNames("rio", "operation_type", "beneficiary_rib",
+                "beneficiary_bank", "cheque_number", "sender_rib", "sender_bank", "amount");
+        BeanWrapperFieldSetMapper<Cheque> fieldSetMapper = new BeanWrapperFieldSetMapper<>();
+        fieldSetMapper.setTargetType(Cheque.class);
+        fieldSetMapper.setDistanceLimit(2);
+        fieldSetMapper.afterPropertiesSet();
+        DefaultLineMapper<Cheque> mapper = new DefaultLineMapper<>();
+        mapper.setLineTokenizer(tokenizer);
+        mapper.setFieldSetMapper(fieldSetMapper);
+        return mapper;
+    }
+
+    private static void verify(String[] lines, LineMapper<Cheque> expected, LineMapper<Cheque> actual) throws Exception {
+        for (int i = 0; i < Math.min(lines.length, 10_000); i++) {
+            Cheque a = expected.mapLine(lines[i], i);
+            Cheque b = actual.mapLine(lines[i], i);
+            if (!a.getRio().equals(b.getRio())
+                    || a.getOperation_type() != b.getOperation_type()
+                    || !a.getBeneficiary_rib().equals(b.getBeneficiary_rib())
+                    || a.getBeneficiary_bank() != b.getBeneficiary_bank()
+                    || a.getCheque_number() != b.getCheque_number()
+                    || !a.getSender_rib().equals(b.getSender_rib())
+                    || a.getSender_bank() != b.getSender_bank()
+                    || a.getAmount() != b.getAmount()) {
+                throw new IllegalStateException("Mappers disagree on line " + i + ": " + lines[i]);
+            }
+        }
+    }
+
+    private static long run(String[] lines, LineMapper<Cheque> mapper) throws Exception {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lines.length; i++) {
+            checksum += mapper.mapLine(lines[i], i).getAmount();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 42) {
+            System.out.println(); // keeps the loop from being optimised away
+        }
+        return elapsed;
+    }
+
+    private static long perSecond(int lines, long nanos) {
+        return lines * 1_000_000_000L / Math.max(nanos, 1);
+    }
+}
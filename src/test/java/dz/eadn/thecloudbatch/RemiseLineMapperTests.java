@@ -0,0 +1,128 @@
+package dz.eadn.thecloudbatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.file.transform.IncorrectTokenCountException;
+
+import dz.eadn.thecloudbatch.model.Cheque;
+
+class RemiseLineMapperTests {
+
+    private static final String LINE = "DZ00000000000000000000001.030.00123456789012345678901.205.15000.00000020012345678901234.201.1500";
+
+    private final RemiseLineMapper mapper = new RemiseLineMapper();
+
+    @Test
+    void mapsEveryField() throws Exception {
+        Cheque cheque = mapper.mapLine(LINE, 2);
+
+        assertThat(cheque.getRio()).isEqualTo("DZ00000000000000000000001");
+        assertThat(cheque.getOperation_type()).isEqualTo((short) 30);
+        assertThat(cheque.getBeneficiary_rib()).isEqualTo("00123456789012345678901");
+        assertThat(cheque.getBeneficiary_bank()).isEqualTo((short) 205);
+        assertThat(cheque.getCheque_number()).isEqualTo(15000L);
+        assertThat(cheque.getSender_rib()).isEqualTo("00000020012345678901234");
+        assertThat(cheque.getSender_bank()).isEqualTo((short) 201);
+        assertThat(cheque.getAmount()).isEqualTo(1500);
+    }
+
+    @Test
+    void rejectsAWrongFieldCount() {
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.030.00123.205.15000.00200.201", 2))
+                .isInstanceOf(IncorrectTokenCountException.class)
+                .satisfies(e -> {
+                    IncorrectTokenCountException count = (IncorrectTokenCountException) e;
+                    assertThat(count.getExpectedCount()).isEqualTo(8);
+                    assertThat(count.getActualCount()).isEqualTo(7);
+                });
+        assertThatThrownBy(() -> mapper.mapLine(LINE + ".12", 2))
+                .isInstanceOf(IncorrectTokenCountException.class);
+        assertThatThrownBy(() -> mapper.mapLine("", 2))
+                .isInstanceOf(IncorrectTokenCountException.class);
+    }
+
+    @Test
+    void keepsEmptyTextFieldsButRejectsEmptyNumbers() throws Exception {
+        Cheque cheque = mapper.mapLine(".030..205.15000..201.1500", 2);
+        assertThat(cheque.getRio()).isEmpty();
+        assertThat(cheque.getBeneficiary_rib()).isEmpty();
+        assertThat(cheque.getSender_rib()).isEmpty();
+
+        assertThatThrownBy(() -> mapper.mapLine("DZ1..00123.205.15000.00200.201.1500", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("operation_type");
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.030.00123.205.15000.00200.201.", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("amount");
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.030.00123.205.15000.00200.201.-", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("amount");
+    }
+
+    @Test
+    void rejectsNonNumericFields() {
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.03a.00123.205.15000.00200.201.1500", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("'03a'")
+                .hasMessageContaining("operation_type");
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.030.00123.205.15 000.00200.201.1500", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("cheque_number");
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.030.00123.205.15000.00200.201.+1500", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("amount");
+    }
+
+    @Test
+    void rejectsNumbersOutOfRange() throws Exception {
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.030.00123.32768.15000.00200.201.1500", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("out of range")
+                .hasMessageContaining("beneficiary_bank");
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.030.00123.205.15000.00200.201.2147483648", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("out of range")
+                .hasMessageContaining("amount");
+        // More digits than a long holds without overflowing
+        assertThatThrownBy(() -> mapper.mapLine("DZ1.030.00123.205.9999999999999999999.00200.201.1500", 2))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessageContaining("cheque_number");
+
+        assertThat(mapper.mapLine("DZ1.030.00123.32767.999999999999999999.00200.-32768.2147483647", 2))
+                .satisfies(cheque -> {
+                    assertThat(cheque.getBeneficiary_bank()).isEqualTo(Short.MAX_VALUE);
+                    assertThat(cheque.getCheque_number()).isEqualTo(999_999_999_999_999_999L);
+                    assertThat(cheque.getSender_bank()).isEqualTo(Short.MIN_VALUE);
+                    assertThat(cheque.getAmount()).isEqualTo(Integer.MAX_VALUE);
+                });
+    }
+
+    @Test
+    void reusesItsBuffersWithoutLeakingFieldsBetweenLines() throws Exception {
+        Cheque first = mapper.mapLine("DZ00000000000000000000001.030.00123456789012345678901.205.15000.00000020012345678901234.201.1500", 2);
+        assertThatThrownBy(() -> mapper.mapLine("DZ2.031.00123.206", 3))
+                .isInstanceOf(IncorrectTokenCountException.class);
+        Cheque second = mapper.mapLine("R.31.B.7.8.S.9.10", 4);
+        Cheque third = mapper.mapLine("DZ3.032.0012345.207.15002.0002.203.3", 5);
+
+        assertThat(first.getRio()).isEqualTo("DZ00000000000000000000001");
+        assertThat(first.getAmount()).isEqualTo(1500);
+
+        assertThat(second.getRio()).isEqualTo("R");
+        assertThat(second.getOperation_type()).isEqualTo((short) 31);
+        assertThat(second.getBeneficiary_rib()).isEqualTo("B");
+        assertThat(second.getBeneficiary_bank()).isEqualTo((short) 7);
+        assertThat(second.getCheque_number()).isEqualTo(8L);
+        assertThat(second.getSender_rib()).isEqualTo("S");
+        assertThat(second.getSender_bank()).isEqualTo((short) 9);
+        assertThat(second.getAmount()).isEqualTo(10);
+
+        assertThat(third.getRio()).isEqualTo("DZ3");
+        assertThat(third.getBeneficiary_rib()).isEqualTo("0012345");
+        assertThat(third.getCheque_number()).isEqualTo(15002L);
+        assertThat(third.getSender_rib()).isEqualTo("0002");
+        assertThat(third.getAmount()).isEqualTo(3);
+    }
+}